@@ -0,0 +1,359 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AccessLog class writes one line per response to a rotating file, without ever blocking the workers.
+ * Workers fill records taken from a bounded ring of preallocated records, claimed with a compare-and-set;
+ * a single background thread formats the records in order and writes them out. When the ring is full,
+ * the record is dropped and counted rather than waited for.
+ *
+ * The format of a line is a pattern, like those of the Apache access log:
+ *   %h remote address         %t time of the request      %r request line
+ *   %m method                 %U URI                      %H protocol
+ *   %s status code            %b bytes sent               %D time to handle the request, in microseconds
+ *   %S session ID             %{Name}i request header     %% a percent sign
+ * The names "common", "combined" and "timing" stand for the usual patterns.
+ */
+public class AccessLog {
+    private static final String COMMON = "%h - - [%t] \"%r\" %s %b";
+    private static final String COMBINED = COMMON + " \"%{Referer}i\" \"%{User-Agent}i\"";
+    private static final String TIMING = COMMON + " %D %S";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final AccessLog INSTANCE = create();
+
+    private final Record[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Sequence of the next record to claim
+    private volatile long head = 0; // Sequence of the next record to write, only moved by the writer thread
+    private final LongAdder dropped = new LongAdder();
+    private final Element[] format;
+    private final String[] headerNames; // The request headers the format shows
+    private final Output output;
+    private volatile boolean closing = false;
+
+    private AccessLog(int capacity, String pattern, Output output) {
+        List<String> headerNames = new ArrayList<>();
+        this.format = compile(pattern, headerNames);
+        this.headerNames = headerNames.toArray(new String[0]);
+        this.output = output;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Record[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) ring[i] = new Record(this.headerNames.length);
+    }
+
+    private static AccessLog create() {
+        String path = WordleServer.getAccessLog();
+        if (path.isEmpty() || path.equals("off")) return null;
+
+        AccessLog log = new AccessLog(WordleServer.getAccessLogBuffer(), WordleServer.getAccessLogFormat(),
+                                      new Output(path, WordleServer.getAccessLogMaxSize(), WordleServer.getAccessLogFiles()));
+        Thread writer = new Thread(log::drain, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+        // Write what is left in the ring when the server stops
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.closing = true;
+            LockSupport.unpark(writer);
+            try { writer.join(1000); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }, "access-log-shutdown"));
+        return log;
+    }
+
+    /**
+     * Logs a response. This never blocks: if the ring is full, the record is dropped.
+     *
+     * @param remoteAddress the address of the client
+     * @param request       the parser holding the request, or null if the request could not be read
+     * @param statusCode    the status code of the response
+     * @param bytes         the number of bytes of the response, headers included
+     * @param startNanos    the System.nanoTime() at which the request started to arrive
+     * @param sessionID     the session of the request, or an empty String if there is none
+     */
+    public static void log(String remoteAddress, HttpRequestParser request, int statusCode, long bytes, long startNanos, String sessionID) {
+        AccessLog log = INSTANCE;
+        if (log == null) return;
+
+        long sequence = log.claim();
+        if (sequence < 0) return;
+
+        Record record = log.ring[(int) sequence & log.mask];
+        record.time = System.currentTimeMillis();
+        record.durationNanos = System.nanoTime() - startNanos;
+        record.remoteAddress = remoteAddress;
+        record.method = (request != null) ? request.getMethod() : null;
+        record.uri = (request != null) ? request.getURI() : null;
+        record.version = (request != null) ? request.getVersion() : null;
+        for (int i = 0; i < log.headerNames.length; i++)
+            record.headers[i] = (request != null) ? request.getHeader(log.headerNames[i]) : null;
+        record.statusCode = statusCode;
+        record.bytes = bytes;
+        record.sessionID = sessionID;
+        record.sequence = sequence; // Publishes the record to the writer thread
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     *
+     * @return the number of dropped records
+     */
+    public static long getDropped() {
+        AccessLog log = INSTANCE;
+        return (log == null) ? 0 : log.dropped.sum();
+    }
+
+
+    // RING METHODS ------------------------------------------------------------
+    /**
+     * Claims the next free record of the ring.
+     *
+     * @return the sequence of the record, or -1 if the ring is full
+     */
+    private long claim() {
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head >= ring.length) {
+                dropped.increment();
+                return -1;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) return sequence;
+        }
+    }
+
+    /**
+     * Writes the published records in order, flushing the output whenever the ring runs empty.
+     * This runs on the writer thread until the server stops.
+     */
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            Record record = ring[(int) head & mask];
+            if (record.sequence != head) {
+                // Nothing published yet: the claimed records, if any, are still being filled
+                output.flush();
+                if (closing && tail.get() == head) return;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            line.setLength(0);
+            for (Element element : format) element.append(record, line);
+            line.append('\n');
+            record.clear();
+            head = head + 1; // Frees the record
+            output.write(line);
+        }
+    }
+
+
+    // FORMAT METHODS ------------------------------------------------------------
+    /**
+     * Compiles a pattern into the elements of a line.
+     *
+     * @param pattern     the pattern, or the name of a usual one
+     * @param headerNames receives the names of the request headers the pattern shows
+     * @return the elements of a line, in order
+     */
+    private static Element[] compile(String pattern, List<String> headerNames) {
+        if (pattern.equals("common")) pattern = COMMON;
+        else if (pattern.equals("combined")) pattern = COMBINED;
+        else if (pattern.equals("timing")) pattern = TIMING;
+
+        List<Element> elements = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '%' || i + 1 == pattern.length()) {
+                text.append(c);
+                continue;
+            }
+
+            char directive = pattern.charAt(++i);
+            if (directive == '%') {
+                text.append('%');
+                continue;
+            }
+            if (text.length() > 0) {
+                String literal = text.toString();
+                elements.add((record, line) -> line.append(literal));
+                text.setLength(0);
+            }
+            if (directive == '{') {
+                int end = pattern.indexOf("}i", i);
+                if (end < 0) throw new IllegalArgumentException("Unterminated header in access log format: " + pattern);
+                int index = headerNames.size();
+                headerNames.add(pattern.substring(i + 1, end));
+                elements.add((record, line) -> appendOrDash(line, record.headers[index]));
+                i = end + 1;
+            }
+            else elements.add(directive(directive));
+        }
+        if (text.length() > 0) {
+            String literal = text.toString();
+            elements.add((record, line) -> line.append(literal));
+        }
+        return elements.toArray(new Element[0]);
+    }
+
+    private static Element directive(char directive) {
+        switch (directive) {
+            case 'h': return (record, line) -> appendOrDash(line, record.remoteAddress);
+            case 't': return (record, line) -> line.append(Timestamps.format(record.time));
+            case 'r': return (record, line) -> {
+                if (record.method == null) line.append('-');
+                else line.append(record.method).append(' ').append(record.uri).append(' ').append(record.version);
+            };
+            case 'm': return (record, line) -> appendOrDash(line, record.method);
+            case 'U': return (record, line) -> appendOrDash(line, record.uri);
+            case 'H': return (record, line) -> appendOrDash(line, record.version);
+            case 's': return (record, line) -> line.append(record.statusCode);
+            case 'b': return (record, line) -> line.append(record.bytes);
+            case 'D': return (record, line) -> line.append(record.durationNanos / 1000);
+            case 'S': return (record, line) -> appendOrDash(line, record.sessionID);
+            default: throw new IllegalArgumentException("Unknown access log directive %" + directive);
+        }
+    }
+
+    private static void appendOrDash(StringBuilder line, String value) {
+        if (value == null || value.isEmpty()) line.append('-');
+        else line.append(value);
+    }
+
+
+    /**
+     * An element of a line: a literal or a field of the record.
+     */
+    private interface Element {
+        void append(Record record, StringBuilder line);
+    }
+
+    /**
+     * A log record, reused every time the ring wraps around.
+     */
+    private static final class Record {
+        private volatile long sequence = -1; // The sequence the record was last published with
+        private long time;
+        private long durationNanos;
+        private String remoteAddress;
+        private String method;
+        private String uri;
+        private String version;
+        private final String[] headers;
+        private int statusCode;
+        private long bytes;
+        private String sessionID;
+
+        Record(int headers) { this.headers = new String[headers]; }
+
+        /**
+         * Drops the references of the record, so that it does not keep the Strings of an old request alive.
+         */
+        void clear() {
+            this.remoteAddress = null;
+            this.method = null;
+            this.uri = null;
+            this.version = null;
+            Arrays.fill(this.headers, null);
+            this.sessionID = null;
+        }
+    }
+
+    /**
+     * Formats the time of the records, once per second: the records of a second share its text.
+     * Only the writer thread uses it.
+     */
+    private static final class Timestamps {
+        private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+                                                                         .withZone(ZoneId.systemDefault());
+        private static long second = -1;
+        private static String text = null;
+
+        static String format(long time) {
+            if (time / 1000 != second) {
+                second = time / 1000;
+                text = FORMAT.format(Instant.ofEpochMilli(time));
+            }
+            return text;
+        }
+    }
+
+    /**
+     * The file the lines are written to, rotated once it reaches its maximum size:
+     * access.log becomes access.log.1, access.log.1 becomes access.log.2, and so on.
+     * The path "-" writes to the standard output instead, without rotation.
+     */
+    private static final class Output {
+        private final String path;
+        private final long maxSize;
+        private final int files;
+        private OutputStream stream;
+        private long size;
+
+        Output(String path, long maxSize, int files) {
+            this.path = path;
+            this.maxSize = maxSize;
+            this.files = files;
+            open();
+        }
+
+        void write(StringBuilder line) {
+            if (stream == null) return;
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                if (maxSize > 0 && size + bytes.length > maxSize && size > 0 && !path.equals("-")) rotate();
+                stream.write(bytes);
+                size += bytes.length;
+            } catch (IOException e) {
+                System.err.println("-- Could not write the access log: " + e.getMessage());
+            }
+        }
+
+        void flush() {
+            if (stream == null) return;
+            try { stream.flush(); }
+            catch (IOException e) { System.err.println("-- Could not write the access log: " + e.getMessage()); }
+        }
+
+        private void open() {
+            if (path.equals("-")) {
+                this.stream = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024);
+                return;
+            }
+            File file = new File(path);
+            try {
+                this.stream = new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024);
+                this.size = file.length();
+            } catch (IOException e) {
+                System.err.println("-- Could not open the access log " + path + ": " + e.getMessage());
+                this.stream = null;
+            }
+        }
+
+        private void rotate() throws IOException {
+            stream.close();
+            new File(path + "." + files).delete();
+            for (int i = files - 1; i >= 1; i--) new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+            if (files > 0) new File(path).renameTo(new File(path + ".1"));
+            else new File(path).delete();
+            open();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The Gzip class compresses response bodies in the gzip format (RFC 1952).
+ * The gzip header and trailer are written here around a raw Deflater, so that the
+ * Deflaters, which hold native zlib memory, are pooled and reused across responses.
+ * There is one pool per compression level: changing the level of a Deflater makes its next
+ * call apply the new level instead of flushing, which would cut a segment short.
+ *
+ * A body can also be compressed piecewise: each piece becomes a Segment of raw deflate data,
+ * flushed to a byte boundary, and the segments are laid end to end between the header and the trailer of a
+ * single gzip member. Pieces that never change can thus be compressed once and reused by every response,
+ * and a member can be sent piece by piece as the body is produced.
+ */
+public class Gzip {
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int TRAILER_LENGTH = 8;
+    @SuppressWarnings("unchecked")
+    private static final Queue<Deflater>[] DEFLATERS = (Queue<Deflater>[]) new Queue<?>[Deflater.BEST_COMPRESSION + 2]; // levels -1 to 9
+    static {
+        for (int i = 0; i < DEFLATERS.length; i++) DEFLATERS[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Compresses bytes into a single gzip member.
+     *
+     * @param data   the array holding the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @param level  the compression level, from 0 (none) to 9 (best), or -1 for the zlib default
+     * @return the gzip member
+     */
+    public static byte[] compress(byte[] data, int offset, int length, int level) {
+        Segment segment = deflate(data, offset, length, level, true);
+        byte[] out = new byte[HEADER.length + segment.data.length + TRAILER_LENGTH];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        System.arraycopy(segment.data, 0, out, HEADER.length, segment.data.length);
+        writeTrailer(out, out.length - TRAILER_LENGTH, segment.crc, segment.length);
+        return out;
+    }
+
+    public static byte[] compress(byte[] data, int level) { return compress(data, 0, data.length, level); }
+
+    /**
+     * Compresses a piece of a body into raw deflate data. All pieces but the last one end on a byte boundary
+     * with a non-final block (a sync flush), so that the pieces that follow can be appended as they are.
+     *
+     * @param data   the array holding the bytes of the piece
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @param level  the compression level, from 0 (none) to 9 (best), or -1 for the zlib default
+     * @param last   whether the piece ends the body
+     * @return the compressed piece
+     * @throws IllegalArgumentException if the level is not between -1 and 9
+     */
+    public static Segment deflate(byte[] data, int offset, int length, int level, boolean last) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        Queue<Deflater> pool = DEFLATERS[level + 1];
+        Deflater deflater = pool.poll();
+        if (deflater == null) deflater = new Deflater(level, true);
+
+        try {
+            byte[] out = new byte[length / 2 + 64];
+            int size = 0;
+            deflater.setInput(data, offset, length);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (size == out.length) out = Arrays.copyOf(out, out.length * 2);
+                    size += deflater.deflate(out, size, out.length - size);
+                }
+            }
+            else {
+                // The flush is complete once the output buffer is left partly empty
+                while ((size += deflater.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH)) == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, length);
+            return new Segment(Arrays.copyOf(out, size), (int) crc.getValue(), length);
+        } finally {
+            deflater.reset();
+            pool.offer(deflater);
+        }
+    }
+
+    /**
+     * Returns the header of a gzip member, to be followed by compressed pieces and the trailer.
+     *
+     * @return the header, which must not be modified
+     */
+    public static byte[] header() { return HEADER; }
+
+    /**
+     * Returns the trailer of a gzip member made of compressed pieces laid end to end after the header.
+     * Only the last segment may have been compressed as the last piece of a body.
+     *
+     * @param segments the compressed pieces, in order
+     * @return the trailer: CRC-32 and length of the uncompressed body
+     */
+    public static byte[] trailer(Segment... segments) {
+        int crc = 0;
+        long length = 0;
+        for (int i = 0; i < segments.length; i++) {
+            crc = (i == 0) ? segments[i].crc : crc32Combine(crc, segments[i].crc, segments[i].length);
+            length += segments[i].length;
+        }
+
+        byte[] trailer = new byte[TRAILER_LENGTH];
+        writeTrailer(trailer, 0, crc, (int) length);
+        return trailer;
+    }
+
+    /**
+     * Tells whether an Accept-Encoding header allows a gzip response: gzip (or x-gzip, or *)
+     * must be listed without a zero quality value.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header, or null if the request has none
+     * @return true if the response may be compressed with gzip, false otherwise
+     */
+    public static boolean isAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+
+        boolean accepted = false;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = ((semicolon < 0) ? element : element.substring(0, semicolon)).trim();
+            boolean gzip = coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip");
+            if (!gzip && !coding.equals("*")) continue;
+
+            boolean allowed = (semicolon < 0) || !isZeroQuality(element.substring(semicolon + 1));
+            // An explicit gzip entry takes precedence over the wildcard
+            if (gzip) return allowed;
+            accepted = allowed;
+        }
+        return accepted;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String[] pair = parameter.split("=", 2);
+            if (pair.length != 2 || !pair[0].trim().equalsIgnoreCase("q")) continue;
+            try { return Double.parseDouble(pair[1].trim()) == 0; }
+            catch (NumberFormatException e) { return false; }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the gzip trailer: CRC-32 and length (modulo 2^32) of the uncompressed data, little-endian.
+     */
+    private static void writeTrailer(byte[] out, int offset, int crc, int length) {
+        writeIntLE(out, offset, crc);
+        writeIntLE(out, offset + 4, length);
+    }
+
+    private static void writeIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Computes the CRC-32 of two pieces of data laid end to end from their own CRC-32s,
+     * in O(log length) steps instead of reading the data again (zlib's crc32_combine).
+     *
+     * @param crc1    the CRC-32 of the first piece
+     * @param crc2    the CRC-32 of the second piece
+     * @param length2 the length of the second piece
+     * @return the CRC-32 of both pieces
+     */
+    static int crc32Combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) return crc1;
+
+        // Operator for one zero bit, then squared into the operators for two and four zero bits
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xedb88320L; // CRC-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Apply length2 zero bytes to crc1, squaring the operator for each bit of length2
+        long crc = crc1 & 0xffffffffL;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) crc = gf2MatrixTimes(even, crc);
+            length2 >>= 1;
+            if (length2 == 0) break;
+
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) crc = gf2MatrixTimes(odd, crc);
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (int) (crc ^ (crc2 & 0xffffffffL));
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1)
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) square[n] = gf2MatrixTimes(matrix, matrix[n]);
+    }
+
+
+    /**
+     * A piece of a body compressed as raw deflate data, with the CRC-32 and length of the uncompressed piece.
+     */
+    public static final class Segment {
+        private final byte[] data;
+        private final int crc;
+        private final int length;
+
+        Segment(byte[] data, int crc, int length) {
+            this.data = data;
+            this.crc = crc;
+            this.length = length;
+        }
+
+        public byte[] getData() { return this.data; }
+        public int getLength() { return this.length; }
+    }
+}
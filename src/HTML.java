@@ -2,59 +2,73 @@ import java.io.IOException;
 
 /**
  * The HTML class is responsible for generating the HTML page for the Wordle game.
- * It includes methods to generate the entire page, the Wordle board, keyboard layout, styles, and other necessary components.
+ * It includes methods to generate the page source compiled by PageTemplate, keyboard layout, styles, and other necessary components.
+ * The Wordle board itself is rendered by PageTemplate, in the slots of the page source.
  */
 public class HTML {
     
     /**
-     * Generates the Wordle game HTML page with the given game state.
-     * This overloaded method calls the primary method with an empty error message.
+     * Generates the beginning of the page, linking the styles and the logo to the given URLs instead of inlining them.
      * 
-     * @param gameState the current game state
-     * @return the HTML page as a String
+     * @param stylesUrl the URL of the style sheet, or null to inline the styles
+     * @param logoUrl   the URL of the logo, or null to inline the logo in base64
+     * @return the beginning of the HTML page as a String
      */
-    public String generateWordlePage(String gameState) {
-        return generateWordlePage(gameState, "");
+    public String generatePagePrefix(String stylesUrl, String logoUrl) {
+        String logoSrc = logoUrl;
+        if (logoSrc == null) {
+            // Image to base64
+            String base64Image = "";
+            try { base64Image = ImageEncoder.encodeImageToBase64("logo.png"); } 
+            catch (IOException e) { e.printStackTrace(); } 
+            logoSrc = "data:image/png;base64," + base64Image;
+        }
+
+        String title = "Wordle Game";
+        String header = "<header><img src=\"" + logoSrc + "\" alt=\"WORDLE\"></header>";
+        String styles = (stylesUrl == null) ? "<style>" + generateStyles() + "</style>\n"
+                                            : "<link rel=\"stylesheet\" href=\"" + stylesUrl + "\">\n";
+
+        return "<!DOCTYPE html>\n" +
+            "<html lang=\"en\">\n" +
+            "<head>\n" +
+            "<meta charset=\"UTF-8\">\n" +
+            "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
+            "<link rel=\"icon\" type=\"image/x-icon\" href=\"data:image/x-icon;,\">\n" + // Empty favicon
+            "<title>" + title + "</title>\n" +
+            styles +
+            "</head>\n" +
+            "<body>\n" +
+            header;
     }
 
     /**
-     * Generates the Wordle game HTML page with the given game state and an optional error message.
-     * This method orchestrates the creation of the entire page including the header, Wordle board, keyboard, and error messages if any.
+     * Generates the source of the page template compiled by PageTemplate: the whole page,
+     * with markers in place of the error message, the board and the script state.
      * 
-     * @param gameState    the current game state
-     * @param errorMessage an optional error message to display on the page
-     * @return the HTML page as a String
+     * @param stylesUrl the URL of the style sheet, or null to inline the styles
+     * @param logoUrl   the URL of the logo, or null to inline the logo in base64
+     * @param scriptUrl the URL of the scripts, or null to inline them
+     * @return the page source as a String
      */
-    public String generateWordlePage(String gameState, String errorMessage) {
-        // Image to base64
-        String base64Image = "";
-        try { base64Image = ImageEncoder.encodeImageToBase64("logo.png"); } 
-        catch (IOException e) { e.printStackTrace(); } 
-        
-        String title = "Wordle Game";
-        String header = "<header><img src=\"data:image/png;base64,"+base64Image+"\" alt=\"WORDLE\"></header>";
-        String wordleBoard = "";
-        
-        boolean isNewGame = true;
-        String[] parts = gameState.split(";");
-        // -1:secret:secret;0:guess:color;1:guess:color;2:guess:color;3:guess:color;4:guess:color;5:guess:color
-        for (int i = 1; i < parts.length; i++) {
-            if (!parts[i].equals(i-1 + "::")) {
-                isNewGame = false;
-                break;
-            }
-        }
-        if (isNewGame) { wordleBoard = generateWordleBoard(); } // For a new game 
-        else { wordleBoard = generateWordleBoardWithState(gameState); } // For a returning player
-
-        // Generate HTML for displaying the error message
-        String errorHtml = "";
-        if (errorMessage != null && !errorMessage.isEmpty())
-            errorHtml = "<div class=\"error-message\">" + errorMessage + "</div>";
-
+    public String generatePageTemplate(String stylesUrl, String logoUrl, String scriptUrl) {
+        return generatePagePrefix(stylesUrl, logoUrl) +
+            PageTemplate.marker(PageTemplate.ERROR) +
+            "<div id=\"wordle-board\">" +
+            PageTemplate.marker(PageTemplate.BOARD) +
+            PageTemplate.marker(PageTemplate.STATE) +
+            "</div>\n" +
+            generatePageSuffix(scriptUrl);
+    }
 
+    /**
+     * Generates the end of the page, loading the scripts from the given URL instead of inlining them.
+     * 
+     * @param scriptUrl the URL of the scripts, or null to inline them
+     * @return the end of the HTML page as a String
+     */
+    public String generatePageSuffix(String scriptUrl) {
         String keyboard = generateKeyboard();
-        String styles = generateStyles();
         String fallbackForm = fallbackForm();
 
         String modalHtml =
@@ -65,6 +79,24 @@ public class HTML {
                             "   </div>" +
                             "</div>";
 
+        String script = (scriptUrl == null) ? "<script>" + generateScript() + "</script>"
+                                            : "<script src=\"" + scriptUrl + "\"></script>";
+
+        return "<div id=\"keyboard\">" + keyboard + "</div>\n" +
+            fallbackForm +
+            modalHtml +
+            script +
+            "</body>\n" +
+            "</html>";
+    }
+
+    /**
+     * Generates the scripts of the page: typing on the board and the keyboard, sending guesses and showing their outcome.
+     * They expect the board and the modal to be in the page already.
+     *
+     * @return the scripts as a String, without the script element
+     */
+    public String generateScript() {
         String fillCell = 
                             "function fillCell(key) {" +
                             "    const cell = document.getElementById(`cell-${currentRow}-${currentCell}`);" +
@@ -282,169 +314,30 @@ public class HTML {
                             "  gameModal.style.display = 'none';" +
                             "};"; 
 
-        String script = "<script>" +
-                        highlightCurrentRowFunction +
-                        fillCell + 
-                        removeLastLetterFunction +
-                        onEraseFunction + 
-                        keyPressedFunction +
-                        showModalFunction+
-                        userWonFunction +
-                        userLostFunction +
-                        processServerResponse +
-                        sendGuess +
-                        onSubmitGuess + 
-                        updateKeyboard +
-                        updateBoardWithFeedback +
-                        closeModalFunction + 
-                        restartGameFunction +
-                        keydownEventListener +
-                        "document.addEventListener('DOMContentLoaded', (event) => {" + // Fallback form
-                        "  var fallbackForm = document.getElementById('fallbackForm');" +
-                        "  if (fallbackForm) {" +
-                        "    fallbackForm.style.display = 'none';" +
-                        "  }" +
-                        "});" +
-                        "highlightCurrentRow();" +
-                        "</script>";
-
-        return "<!DOCTYPE html>\n" +
-            "<html lang=\"en\">\n" +
-            "<head>\n" +
-            "<meta charset=\"UTF-8\">\n" +
-            "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
-            "<link rel=\"icon\" type=\"image/x-icon\" href=\"data:image/x-icon;,\">\n" + // Empty favicon
-            "<title>" + title + "</title>\n" +
-            "<style>" + styles + "</style>\n" +
-            "</head>\n" +
-            "<body>\n" +
-            header +
-            errorHtml + 
-            "<div id=\"wordle-board\">" + wordleBoard + "</div>\n" +
-            "<div id=\"keyboard\">" + keyboard + "</div>\n" +
-            fallbackForm +
-            modalHtml +
-            script +
-            "</body>\n" +
-            "</html>";
-    }
-
-    /**
-     * Generates a blank Wordle board for a new game.
-     * This method constructs the initial empty board layout used at the start of a new game.
-     * 
-     * @return a string representing the initial empty Wordle board HTML
-     */
-    private String generateWordleBoard() {
-        StringBuilder boardBuilder = new StringBuilder();
-        for (int i = 0; i < 6; i++) {
-            boardBuilder.append("<div class=\"word-row\" id=\"row-").append(i).append("\">");
-            for (int j = 0; j < 5; j++) {
-                boardBuilder.append("<div class=\"word-cell\" id=\"cell-").append(i).append("-").append(j).append("\"></div>");
-            }
-            boardBuilder.append("</div>");
-        }
-    
-        // Initialize the game state for a new game
-        String scriptUpdate = "<script>let currentRow = 0; let currentGuess = ''; let currentCell = 0;</script>";
-    
-        return boardBuilder.toString() + scriptUpdate;
+        return highlightCurrentRowFunction +
+               fillCell + 
+               removeLastLetterFunction +
+               onEraseFunction + 
+               keyPressedFunction +
+               showModalFunction+
+               userWonFunction +
+               userLostFunction +
+               processServerResponse +
+               sendGuess +
+               onSubmitGuess + 
+               updateKeyboard +
+               updateBoardWithFeedback +
+               closeModalFunction + 
+               restartGameFunction +
+               keydownEventListener +
+               "document.addEventListener('DOMContentLoaded', (event) => {" + // Fallback form
+               "  var fallbackForm = document.getElementById('fallbackForm');" +
+               "  if (fallbackForm) {" +
+               "    fallbackForm.style.display = 'none';" +
+               "  }" +
+               "});" +
+               "highlightCurrentRow();";
     }
-    
-    /**
-     * Generates a Wordle board based on the given game state.
-     * This method creates the board layout with guesses and color feedback for a game in progress.
-     * 
-     * @param gameState the game state represented as a string
-     * @return a string representing the Wordle board HTML with the current game state
-     */
-    private String generateWordleBoardWithState(String gameState) {
-        StringBuilder boardBuilder = new StringBuilder();
-        String[] tries = gameState.split(";");
-        int lastFilledRow = -1;
-        boolean gameEnded = false;
-        boolean playerWon = false;
-        String secretWord = "";
-
-        // Extract the secret word
-        if (tries.length > 0) {
-            String[] firstPart = tries[0].split(":");
-            if (firstPart.length > 2) {
-                secretWord = firstPart[2]; // Assuming the format is -1:secret:secretWord
-            }
-        }
-
-        for (int i = 1; i < tries.length; i++) {
-            String[] parts = tries[i].split(":");
-            String guess = (parts.length > 1) ? parts[1].toUpperCase() : "";
-            String color = (parts.length > 2) ? parts[2] : "";
-
-            if (!guess.isEmpty() && !color.isEmpty()) {
-                lastFilledRow = i - 1; // Update last filled row
-            }
-            
-            boolean isCurrentRow = i-1 == lastFilledRow + 1; // Check if this is the current row
-            String rowClass = isCurrentRow ? "word-row highlight-row" : "word-row";
-
-            boardBuilder.append("<div class=\"").append(rowClass).append("\" id=\"row-").append(i-1).append("\">");
-
-            for (int j = 0; j < 5; j++) {
-                char letter = guess.length() > j ? guess.charAt(j) : ' ';
-                char colorCode = color.length() > j ? color.charAt(j) : ' ';
-                String colorClass = getColorClass(colorCode);
-                String cellContent = letter != ' ' ? String.valueOf(letter) : "";
-                String cellClass = "word-cell" + (colorClass.isEmpty() ? "" : " " + colorClass);
-
-                boardBuilder.append("<div class=\"" + cellClass + "\" id=\"cell-")
-                            .append(i-1)
-                            .append("-")
-                            .append(j)
-                            .append("\">")
-                            .append(cellContent)
-                            .append("</div>");
-            }
-            boardBuilder.append("</div>");
-
-            // Check for win condition
-            if (color.equals("GGGGG")) {
-                gameEnded = true;
-                playerWon = true;
-            }
-        }
-        
-        System.out.println("lastFilledRow: " + lastFilledRow);
-
-        if (!gameEnded && lastFilledRow == 5) gameEnded = true;
-
-        if (gameEnded) {
-            String modalMessage = playerWon ? "Congratulations, You Won!" : "Game Over. The correct word was: " + secretWord.toUpperCase();
-            boardBuilder.append("<form action='/restart' method='post'>")
-                        .append("<div class=\"modal\" style=\"display: block;\">")
-                        .append("<p>").append(modalMessage).append("</p>")
-                        .append("<input type='submit' value='Restart Game'>")
-                        .append("</div></form>");
-        }
-
-        // Update currentRow and currentGuess in the script
-        String scriptUpdate = "<script>let currentRow = " + (lastFilledRow + 1) + "; let currentGuess = ''; let currentCell = 0;</script>";
-    
-        return boardBuilder.toString() + scriptUpdate;
-    }    
-    
-    /**
-     * Returns the color class corresponding to the given color code.
-     * 
-     * @param colorCode the color code ('G' for green, 'Y' for yellow, 'B' for darkened)
-     * @return the color class corresponding to the given color code, or an empty string if the color code is invalid
-     */
-    private String getColorClass(char colorCode) {
-        switch (colorCode) {
-            case 'G': return "green";
-            case 'Y': return "yellow";
-            case 'B': return "darkened";
-            default: return "";
-        }
-    }    
 
     /**
      * Generates the HTML representation of the keyboard.
@@ -500,7 +393,7 @@ public class HTML {
      *
      * @return The generated styles as a String.
      */
-    private String generateStyles() {
+    public String generateStyles() {
         return "body { font-family: Arial, sans-serif; background-color: #121213; color: white; }" +
                 "header { text-align: center; padding: 20px; }" +
                 "#wordle-board { margin-bottom: 20px; }" +
@@ -1,58 +1,265 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 
 /**
  * The HttpHandler class is responsible for handling HTTP requests from clients.
  * It implements the Runnable interface to allow for concurrent handling of requests.
  */
 public class HttpHandler implements Runnable {
+    private static final String CRLF = "\r\n";
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final int END_OF_STREAM = -1;
+    private static final String PAGE_CACHE_CONTROL = "private, no-cache"; // The page belongs to a session and must be revalidated
+    private static final RouteTable<Endpoint> ROUTES = new RouteTable<>();
+    static {
+        addRoute("/", HttpHandler::routeRoot);
+        addRoute("/play.html", HttpHandler::routePlay);
+        addRoute("/play.html/guess", HttpHandler::routeGuess);
+        addRoute("/play.html/restart", HttpHandler::routeRestart);
+        addRoute("/restart", HttpHandler::routeRestart);
+        addRoute("/favicon.ico", HttpHandler::routeFavicon);
+        addRoute("/metrics", HttpHandler::routeMetrics);
+        addRoute("/admin/trace", HttpHandler::routeAdminTrace);
+        addRoute("/static/app.css", HttpHandler::routeStatic);
+        addRoute("/static/app.js", HttpHandler::routeStatic);
+        addRoute("/static/logo.png", HttpHandler::routeStatic);
+    }
+    static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable" + CRLF +
+                                               "Retry-After: " + RETRY_AFTER_SECONDS + CRLF +
+                                               "Content-Type: text/plain" + CRLF +
+                                               "Content-Length: 0" + CRLF +
+                                               "Connection: close" + CRLF + CRLF).getBytes(StandardCharsets.US_ASCII);
     private final int serverID;
     private final Socket clientSocket;
+    private final int maxRequests;
+    private String remoteAddress;
+    private InputStream input; // null when the requests are read by the NioServer
+    private WritableByteChannel output; // null when the responses are handed over to the NioServer
+    private final ResponseWriter responseWriter = new ResponseWriter();
+    private final HttpRequestParser parser;
+    private final PageTemplate.Buffer pageBuffer = new PageTemplate.Buffer(); // Reused by every page rendered on the connection
+    private int chunkSize; // Size of the chunks of chunked bodies, in bytes
+    private int requestsServed = 0;
+    private long requestDeadline = 0; // 0 until the first byte of the request arrives
+    private long requestStart; // System.nanoTime() of the first byte of the request
+    private long sessionNanos; // Time spent on the session of the current request
+    private long nestedNanos; // Time of the phases timed apart within the checks of the current request
+    private WordleEvents.RequestEvent requestEvent; // null unless requests are recorded by the Flight Recorder
+    private int statusCode; // Status of the response to the current request, for the access log and the metrics
+    private int routeID; // Route of the current request, for the metrics
     private boolean newSession = false;
-    private boolean isChunked = false;
     private boolean isRequestGuess = false;
     private boolean isJavaScriptEnabled = true;
-    private boolean keepAliveRequest = false;
+    private boolean closeConnection = false;
+    private boolean traced = false; // Whether the current request is traced, see Trace.select()
     private int rowID = -1; // -1 means no rowID (initial state)
     private String sessionID = "";
+    private long sessionVersion = -1; // The version of the game state the request sees, read once, -1 until then
+    private PageCache pageCache = null; // The page parts the request is answered with, fetched once, null until then
     private String guess = "";
-    private char[] buffer = null;
-    private final Map<String, String> headers = new HashMap<String, String>();
     private String method;
 
     public HttpHandler(int serverID, Socket clientSocket) {
         this.serverID = serverID;
         this.clientSocket = clientSocket;
+        this.maxRequests = WordleServer.getMaxKeepAliveRequests();
+        this.parser = new HttpRequestParser();
+        this.chunkSize = chunkSize(0);
+    }
+
+    /**
+     * Creates a handler that answers the requests already received and parsed by the given parser,
+     * without reading, and keeps the responses, to be taken with takeResponses(), instead of writing them to a socket.
+     * This is used by the NioServer, whose event loops own the socket I/O: the parser belongs to the connection
+     * and is left holding the bytes of the next request, if only part of it has arrived.
+     *
+     * @param serverID       the ID of the server
+     * @param parser         the parser of the connection, holding at least one complete or rejected request
+     * @param requestsLeft   the number of requests the connection may still serve
+     * @param sendBufferSize the size of the send buffer of the socket, in bytes, or 0 if it is not known
+     * @param remoteAddress  the address of the client
+     */
+    public HttpHandler(int serverID, HttpRequestParser parser, int requestsLeft, int sendBufferSize, String remoteAddress) {
+        this.serverID = serverID;
+        this.clientSocket = null;
+        this.maxRequests = requestsLeft;
+        this.remoteAddress = remoteAddress;
+        this.parser = parser;
+        this.chunkSize = chunkSize(sendBufferSize);
+    }
+
+    /**
+     * Returns the size of the chunks of chunked bodies: the configured size if there is one, or else the size
+     * of the send buffer of the socket, so that every chunk fills the socket in a single write.
+     *
+     * @param sendBufferSize the size of the send buffer of the socket, in bytes, or 0 if it is not known
+     * @return the chunk size, in bytes
+     */
+    private static int chunkSize(int sendBufferSize) {
+        if (WordleServer.getMaxChunckSize() > 0) return WordleServer.getMaxChunckSize();
+        return (sendBufferSize > 0) ? sendBufferSize : ResponseWriter.BUFFER_SIZE;
     }
 
     @Override
     public void run() {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), false);
+            if (clientSocket != null) {
+                this.input = clientSocket.getInputStream();
+                // Sockets accepted from a channel get gathering writes
+                this.output = (clientSocket.getChannel() != null) ? clientSocket.getChannel() : Channels.newChannel(clientSocket.getOutputStream());
+                this.chunkSize = chunkSize(clientSocket.getSendBufferSize());
+                this.remoteAddress = clientSocket.getInetAddress().getHostAddress();
+            }
+            // Responses are gathered in the writer, so that the answers to pipelined requests go out in one write
+            ResponseWriter writer = this.responseWriter;
+
+            // Serve requests until the client or the server closes the connection
+            while (requestsServed < maxRequests && !closeConnection) {
+                // Wait for the next request, at most the keep-alive timeout once a request has been served
+                this.requestDeadline = 0;
+                int idleTimeout = (requestsServed > 0) ? WordleServer.getKeepAliveTimeout() : WordleServer.getReadTimeout();
+                if (clientSocket != null) clientSocket.setSoTimeout(idleTimeout);
+
+                // Read the HTTP request
+                resetRequestState();
+                int result;
+                try { result = readRequest(); }
+                catch (IOException e) {
+                    // Connections that stay idle are closed silently, slow requests are answered
+                    if (this.requestDeadline != 0) {
+                        long bytesBefore = writer.getBytesWritten();
+                        rejectRequest(writer, e);
+                        recordResponse(writer, bytesBefore, false);
+                    }
+                    break;
+                }
+                if (result == END_OF_STREAM) break;
+                if (result != HttpRequestParser.COMPLETE) {
+                    // Malformed or oversized request
+                    if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, "Request rejected ::" + getStatusMessage(result));
+                    long bytesBefore = writer.getBytesWritten();
+                    sendErrorResponse(writer, result);
+                    recordResponse(writer, bytesBefore, false);
+                    break;
+                }
 
-            // Read the HTTP request
-            String requestLine = reader.readLine();
+                // Process the request
+                if (++requestsServed == maxRequests) this.closeConnection = true;
+                long bytesBefore = writer.getBytesWritten();
+                ServerMetrics.requestStarted();
+                handleRequest(writer);
+                recordResponse(writer, bytesBefore, true);
+                parser.next();
 
-            // Process the request
-            handleRequest(requestLine, reader, writer);
+                // Only write once every request already received has been answered
+                if (closeConnection || !(parser.hasBufferedBytes() || (input != null && input.available() > 0))) flushResponses(writer);
+            }
+            flushResponses(writer);
 
-            reader.close();
-            writer.close();
-            clientSocket.close();
+            // A connection ended by the server may still have unread bytes, which would reset it if closed at once
+            if (clientSocket != null) {
+                if (closeConnection) WordleServer.closeGracefully(clientSocket);
+                else clientSocket.close();
+            }
         } 
         catch (IOException e) { e.printStackTrace(); }
+        finally {
+            // Responses that could not be written give their buffers back
+            if (clientSocket != null) responseWriter.discard();
+        }
+    }
+
+    /**
+     * Tells whether the connection may serve another request once run() has returned.
+     * The NioServer uses it to decide whether to keep reading from the connection.
+     *
+     * @return true if the connection should be kept open, false otherwise
+     */
+    public boolean isKeepAlive() { return !this.closeConnection; }
+
+    /**
+     * Returns the number of requests read from the connection so far.
+     *
+     * @return the number of requests served
+     */
+    public int getRequestsServed() { return this.requestsServed; }
+
+    /**
+     * Hands the responses gathered by run() over to the caller, ready for a gathering write.
+     * The caller gives the buffers back with ResponseWriter.release() once they are written.
+     *
+     * @return the buffers holding the responses, in order
+     */
+    public ByteBuffer[] takeResponses() { return responseWriter.takeBuffers(); }
+
+    /**
+     * Writes the responses gathered so far to the client in a single gathering write.
+     * Without a socket, the responses are kept for the NioServer.
+     *
+     * @param writer the ResponseWriter holding the responses
+     * @throws IOException if the responses cannot be written
+     */
+    private void flushResponses(ResponseWriter writer) throws IOException {
+        if (this.output == null || writer.isEmpty()) return;
+        long start = System.nanoTime();
+        writer.writeTo(this.output);
+        ServerMetrics.Phase.WRITE.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the response to the current request in the access log, the metrics and the Flight Recorder.
+     *
+     * @param writer      the ResponseWriter holding the response
+     * @param bytesBefore the number of bytes the writer held before the response
+     * @param complete    whether the parser holds the complete request, counted by ServerMetrics.requestStarted()
+     */
+    private void recordResponse(ResponseWriter writer, long bytesBefore, boolean complete) {
+        long bytes = writer.getBytesWritten() - bytesBefore;
+        AccessLog.log(this.remoteAddress, complete ? this.parser : null, this.statusCode, bytes, this.requestStart, this.sessionID);
+        ServerMetrics.requestEnded(this.routeID, this.statusCode, bytes, System.nanoTime() - this.requestStart, complete);
+        WordleEvents.endRequest(this.requestEvent, this.remoteAddress, complete ? this.parser : null,
+                                ServerMetrics.getRouteName(this.routeID), this.statusCode, bytes, this.sessionID);
+    }
+
+    /**
+     * Tells whether the client runs on the same host as the server.
+     *
+     * @return true if the client connected from a loopback address, false otherwise
+     */
+    private boolean isLocalClient() {
+        try { return this.remoteAddress != null && InetAddress.getByName(this.remoteAddress).isLoopbackAddress(); }
+        catch (IOException e) { return false; } // The address is a literal: it is never looked up
+    }
+
+    /**
+     * Clears the state left by the previous request on the same connection.
+     */
+    private void resetRequestState() {
+        this.newSession = false;
+        this.isRequestGuess = false;
+        this.isJavaScriptEnabled = true;
+        this.rowID = -1;
+        this.sessionID = "";
+        this.sessionVersion = -1;
+        this.pageCache = null;
+        this.guess = "";
+        this.method = null;
+        this.statusCode = 0;
+        this.routeID = ServerMetrics.OTHER_ROUTE;
+        this.sessionNanos = 0;
+        this.nestedNanos = 0;
+        this.requestEvent = null;
+        this.traced = false;
     }
 
 
@@ -63,50 +270,50 @@ public class HttpHandler implements Runnable {
      * retrieves the guess for a POST request, checks the validity of the guess,
      * checks if the game is over, and responds accordingly.
      *
-     * @param requestLine The request line of the HTTP request.
-     * @param reader      The BufferedReader used to read the request body.
-     * @param writer      The PrintWriter used to send the HTTP response.
+     * @param writer The ResponseWriter used to send the HTTP response.
+     * @throws IOException if a streamed response cannot be written
      */
-    private void handleRequest(String requestLine, BufferedReader reader, PrintWriter writer) {
-        // Validate the HTTP request format
-        boolean success = formatCheck(requestLine, reader, writer);
+    private void handleRequest(ResponseWriter writer) throws IOException {
+        // Validate the HTTP request format, timed apart from the session and validation phases it holds
+        long checkStart = System.nanoTime();
+        boolean success = formatCheck(writer);
         if (!success) return;
+        ServerMetrics.Phase.PARSE.record(System.nanoTime() - checkStart - this.nestedNanos);
 
         // At this point, if no session ID was found, we generate a new session
         if (this.sessionID.isEmpty()) {
+            long sessionStart = System.nanoTime();
             this.newSession = true;
             this.sessionID = UUID.randomUUID().toString();
 
             // Create a new entry in the sessions mapping
             SessionData sessionData = new SessionData(generateSecretWord());
             WordleServer.addSession(this.sessionID, sessionData);
-            System.out.println("New session added to mapping:" + this.sessionID);
+            if (traced) traced = Trace.follows(this.sessionID);
+            if (traced && Trace.SESSION.isEnabled(Trace.INFO)) Trace.SESSION.info(this.sessionID, "New session added to mapping");
+            this.sessionNanos += System.nanoTime() - sessionStart;
         }
+        ServerMetrics.Phase.SESSION.record(this.sessionNanos);
 
         // Retrieve guess for POST and Check validity
         if (this.method.equals("POST")) {
-            this.guess = getBody(reader).split("=")[1].toLowerCase();
+            String body = parser.getBody();
+            this.guess = body.substring(body.indexOf('=') + 1).toLowerCase();
             if (!isGuessValid(this.guess)) {
-                // Generate the full game state
-                String fullGameState = WordleServer.getFullGameState(this.sessionID);
-
-                // Generate the HTML page with the error message
-                HTML htmlGenerator = new HTML();
+                // Send the HTML page with the error message
                 String errorMessage = "Word does not exist. Try another.";
-                String response = htmlGenerator.generateWordlePage(fullGameState, errorMessage);
-                sendHttpResponse(writer, 200, "text/html", response);
+                sendPage(writer, errorMessage);
                 return;
             }
-            System.out.println("Guess: " + this.guess);
+            if (traced && Trace.GAME.isEnabled(Trace.DEBUG)) Trace.GAME.debug(this.sessionID, "Guess: " + this.guess);
         }
 
         // Check if the game is over
         int currAttempt = WordleServer.getSessionData(this.sessionID).getAttempt();
-        System.out.println("DEBUG_currAttempt: " + currAttempt);
+        if (traced && Trace.GAME.isEnabled(Trace.DEBUG)) Trace.GAME.debug(this.sessionID, "Current attempt: " + currAttempt);
         if (currAttempt > WordleServer.getMaxAttempts()) {
             WordleServer.getSessionData(this.sessionID).setStatus("Gameover");
-            String response = "{\"Status\": \"Gameover\", \"Message\":\"" + WordleServer.getSecretWord(this.sessionID) +"\"}";
-            sendHttpResponse(writer, 200, "application/json", response);
+            sendJsonMessage(writer, JsonWriter.GAMEOVER, WordleServer.getSecretWord(this.sessionID));
             return;
         };
 
@@ -118,126 +325,80 @@ public class HttpHandler implements Runnable {
 
     /**
      * Checks the format of the HTTP request and headers.
+     * The request has already been parsed: its syntax and size limits are checked by the HttpRequestParser.
      * 
-     * @param requestLine the HTTP request line
-     * @param reader the BufferedReader to read the headers from
-     * @param writer the PrintWriter to send error responses to
+     * @param writer the ResponseWriter to send error responses to
      * @return true if the format is valid, false otherwise
      */
-    private boolean formatCheck(String requestLine, BufferedReader reader, PrintWriter writer) {
-        // Validate the HTTP request line
-        if (!requestLineCheck(requestLine, reader, writer)) return false;
+    private boolean formatCheck(ResponseWriter writer) {
+        // HTTP/1.1 connections are persistent unless the client asks otherwise,
+        // which also holds for requests answered early (redirects, favicon, invalid guesses)
+        if (parser.headerEquals("Connection", "close")) this.closeConnection = true;
 
-        // Read and validate the HTTP headers
-        String line;
-        try {
-            // Retrieve headers
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                // Invalid header format
-                if (!line.matches("^[^:]+: .*$")) {
-                    System.err.println(line + " :: Invalid header format");
-                    sendErrorResponse(writer, 400);
-                    return false;
-                } 
-                // Extract the header name and value
-                else {
-                    String[] header = line.split(": ", 2);
-                    headers.put(header[0], header[1]);
-                }
-            }
-
-            return headersCheck(writer);
-        } catch (IOException e) { 
-            e.printStackTrace(); 
-            return false;
-        }
+        // Validate the HTTP request line, then the headers
+        return requestLineCheck(writer) && headersCheck(writer);
     }
 
     /**
      * Checks the validity of the request line in an HTTP request.
      * 
-     * @param requestLine the request line to be checked
-     * @param reader the BufferedReader used to read the request
-     * @param writer the PrintWriter used to send responses
+     * @param writer the ResponseWriter used to send responses
      * @return true if the request line is valid, false otherwise
      */
-    public boolean requestLineCheck(String requestLine, BufferedReader reader, PrintWriter writer) {
-        if (requestLine == null || !requestLine.matches("^[A-Z]+ .* HTTP/1\\.1$")) {
-            // Invalid request format
-            System.err.println(requestLine + " ::Invalid request format");
-            sendErrorResponse(writer, 400);
+    public boolean requestLineCheck(ResponseWriter writer) {
+        // Check if the HTTP method is allowed
+        String method = parser.getMethod();
+        if (!isMethodAllowed(method)) {
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, method + " ::Invalid HTTP method");
+            sendErrorResponse(writer, 405);
+            return false;
+        } 
+        if (!(method.equals("GET") || method.equals("HEAD") || method.equals("POST"))) {
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, method + " ::Unimplemented HTTP method");
+            sendErrorResponse(writer, 501);
             return false;
         }
-        else {
-            // Extract the request method, URI and HTTP version
-            String[] request = requestLine.split(" ", 3);
-            String method = request[0];
-            String uri = request[1];
-            String version = request[2];
-
-            // Check if the HTTP method is allowed
-            if (!isMethodAllowed(method)) {
-                System.err.println(method + " ::Invalid HTTP method");
-                sendErrorResponse(writer, 405);
-                return false;
-            } 
-            if (!(method.equals("GET") || method.equals("HEAD") || method.equals("POST"))) {
-                System.err.println(method + " ::Unimplemented HTTP method");
-                sendErrorResponse(writer, 501);
-                return false;
-            }
-            
-            // Check if the URI is valid
-            if (!isURIValid(uri, writer, reader)) return false;
 
-            // Check if the HTTP version is supported
-            if (!version.equals("HTTP/1.1")) {
-                System.err.println(version + " ::Invalid HTTP version");
-                sendErrorResponse(writer, 505);
-                return false;
-            }
+        // Check if the HTTP version is supported
+        if (!parser.isVersion("HTTP/1.1")) {
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, parser.getVersion() + " ::Invalid HTTP version");
+            sendErrorResponse(writer, 505);
+            return false;
         }
-        return true;
+
+        // Check if the URI is valid
+        return isURIValid(parser.getURI(), writer);
     }
 
     /**
      * Checks the headers of the HTTP request and performs necessary validations.
      * 
-     * @param writer The PrintWriter object used to send responses.
+     * @param writer The ResponseWriter object used to send responses.
      * @return true if the headers are valid, false otherwise.
      */
-    public boolean headersCheck(PrintWriter writer) {
-        // Retrieve content length
-        if (!headers.containsKey("Content-Length") && !this.method.equals("GET") && !this.method.equals("HEAD")) {
+    public boolean headersCheck(ResponseWriter writer) {
+        // Retrieve content length, a chunked body carrying its own framing
+        if (!parser.hasHeader("Content-Length") && !parser.isChunked() && !this.method.equals("GET") && !this.method.equals("HEAD")) {
             // Content-Length header not found
-            System.err.println(method + " ::Content-Length header not found");
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, method + " ::Content-Length header not found");
             sendErrorResponse(writer, 411);
             return false;
         } 
-        else if (headers.containsKey("Content-Length")) {
-            int length = Integer.parseInt(headers.get("Content-Length"));
-            this.buffer = new char[length];
-        }
-        
-        // Check if the request is chunked
-        if (headers.containsKey("Transfer-Encoding") && headers.get("Transfer-Encoding").contains("chunked"))
-            this.isChunked = true;
-        // Ensure connection closes
-        if (headers.containsKey("Connection") && headers.get("Connection").equals("keep-alive"))
-            this.keepAliveRequest = true;
 
         // Process headers in search of existing session
-        if (headers.containsKey("Cookie")) {
+        String cookie = parser.getHeader("Cookie");
+        if (cookie != null) {
+            long sessionStart = System.nanoTime();
             // Extract the session ID from the Cookie header
-            String[] session = headers.get("Cookie").split("=", 2);
-            this.sessionID = session[1];
-            System.out.println("User id: " + sessionID);
-            if (WordleServer.hasSession(sessionID)) WordleServer.printSESSION(sessionID);
+            this.sessionID = getSessionCookie(cookie);
+            if (traced) traced = Trace.follows(this.sessionID);
+            if (traced && Trace.SESSION.isEnabled(Trace.DEBUG))
+                Trace.SESSION.debug(this.sessionID, WordleServer.hasSession(sessionID) ? "Known session" : "Unknown session");
 
             // Check if the session ID is valid
-            if (!sessionID.matches("^[0-9a-f\\-]+$")) {
+            if (!isSessionIDValid(sessionID)) {
                 // Invalid session ID
-                System.err.println(sessionID + " ::Invalid session ID");
+                if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(sessionID, "Invalid session ID");
                 sendErrorResponse(writer, 400);
                 return false;
             } 
@@ -255,39 +416,43 @@ public class HttpHandler implements Runnable {
             boolean isExpired = WordleServer.getSessionData(this.sessionID).isExpired();
             String status = WordleServer.getSessionData(this.sessionID).getStatus();
             if(isExpired || status.equals("Gameover") || status.equals("Win")) {
+                if (isExpired) WordleEvents.session(WordleEvents.SESSION_EXPIRED, this.sessionID, status);
                 WordleServer.removeSession(this.sessionID);
                 this.sessionID = "";
             }
+            long sessionTime = System.nanoTime() - sessionStart;
+            this.sessionNanos += sessionTime;
+            this.nestedNanos += sessionTime;
         }
 
         // Check if JavaScript is enabled
-        if (headers.containsKey("JS-Enabled") && headers.get("JS-Enabled").equals("false"))
-            this.isJavaScriptEnabled = false;
+        if (parser.headerEquals("JS-Enabled", "false")) this.isJavaScriptEnabled = false;
 
         // Check if the request is an AJAX request
-        if (headers.containsKey("X-Requested-With") && !headers.get("X-Requested-With").equals("XMLHttpRequest")) {
+        if (parser.hasHeader("X-Requested-With") && !parser.headerEquals("X-Requested-With", "XMLHttpRequest")) {
             // Invalid request format
-            System.err.println("X-Requested-With: " + headers.get("X-Requested-With") + " ::Invalid request format");
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN))
+                Trace.REQUEST.warn(sessionID, "X-Requested-With: " + parser.getHeader("X-Requested-With") + " ::Invalid request format");
             sendErrorResponse(writer, 400);
             return false;
         }
 
         // Check if mismatch exists between rowID submitted by browser and current attempt
-        if (headers.containsKey("Row")) {
-            String row = headers.get("Row");
+        String row = parser.getHeader("Row");
+        if (row != null) {
             try {
                 this.rowID = Integer.parseInt(row);
                 if (rowID != -1 && !sessionID.isEmpty()) {
                     // Check that the rowID match current attempt
                     if (rowID != WordleServer.getSessionData(this.sessionID).getAttempt()) {
-                        System.err.println(rowID + " ::Invalid row ID");
+                        if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(sessionID, rowID + " ::Invalid row ID");
                         sendErrorResponse(writer, 400);
                         return false;
                     }
                 } 
             } 
             catch (NumberFormatException e) {
-                System.err.println(row + " ::NumberFormatException");
+                if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(sessionID, row + " ::NumberFormatException");
                 sendErrorResponse(writer, 400);
                 return false;
             }
@@ -303,43 +468,41 @@ public class HttpHandler implements Runnable {
      * If the request type is not for JavaScript and guess, it updates the game state if it is a guess request,
      * checks for winning or game over conditions, and sends the HTML response.
      *
-     * @param writer       the PrintWriter object used to send the HTTP response
+     * @param writer       the ResponseWriter object used to send the HTTP response
      * @param currAttempt  the current attempt number
      * @param isJSandGuess true if the request type is for JavaScript and guess, false otherwise
+     * @throws IOException if a streamed response cannot be written
      */
-    public void pleaseRespond(PrintWriter writer, int currAttempt, boolean isJSandGuess) {
+    public void pleaseRespond(ResponseWriter writer, int currAttempt, boolean isJSandGuess) throws IOException {
         // Process the request
-        HTML htmlGenerator = new HTML();
-        String response;
-        
         if(isJSandGuess) {
             // Update game state
             String colorPattern = responseBuilder(this.guess);
             WordleServer.addGameState(this.sessionID, this.guess, colorPattern);
 
-            // Retrieve the current game state -> 1:guess:color
-            String currGameState = WordleServer.getCurrGameState(this.sessionID, currAttempt);
-
-            // Check if winning state
+            // Check if winning state, answering with the current game state -> 1:guess:color
             if (colorPattern.equals("GGGGG")) {
                 WordleServer.getSessionData(this.sessionID).setStatus("Win");
-                response = "{\"Status\": \"Win\", \"Message\":\"" + currGameState + "\"}";
-                sendHttpResponse(writer, 200, "application/json", response);
+                sendJsonGameState(writer, JsonWriter.WIN, currAttempt);
                 return;
             }
 
             // Check if the current attempt is the last attempt
             if (currAttempt == 5) {
                 WordleServer.getSessionData(this.sessionID).setStatus("Gameover");
-                response = "{\"Status\": \"Gameover\", \"Message\":\"" + WordleServer.getSecretWord(this.sessionID) + "\"}";
-                sendHttpResponse(writer, 200, "application/json", response);
+                sendJsonMessage(writer, JsonWriter.GAMEOVER, WordleServer.getSecretWord(this.sessionID));
                 return;
             }
 
-            response = "{\"Status\": \"Playing\", \"Message\":\"" + currGameState + "\"}";
-            sendHttpResponse(writer, 200, "application/json", response);
+            sendJsonGameState(writer, JsonWriter.PLAYING, currAttempt);
         }
         else {
+            // A reload of a page the client already holds is answered without rendering it
+            if (!this.isRequestGuess && isPageNotModified()) {
+                sendNotModified(writer, pageETag(Gzip.isAccepted(parser.getHeader("Accept-Encoding"))), true, PAGE_CACHE_CONTROL);
+                return;
+            }
+
             // Update game state
             if (this.isRequestGuess) {
                 String colorPattern = responseBuilder(this.guess);
@@ -349,15 +512,16 @@ public class HttpHandler implements Runnable {
             // Retrieve the full game state
             // -1:secret:secret;0:guess:color;1:guess:color;2:guess:color;3:guess:color;4:guess:color;5:guess:color;
             String fullGameState = WordleServer.getFullGameState(this.sessionID);
-            System.out.println("DEBUG_ID_gamestate: " + fullGameState);
+            // The first entry holds the secret word, which is never traced
+            if (traced && Trace.GAME.isEnabled(Trace.DEBUG))
+                Trace.GAME.debug(this.sessionID, "Game state: " + fullGameState.substring(fullGameState.indexOf(';') + 1));
 
             // Check if final state
             if (fullGameState.contains("GGGGG")) WordleServer.getSessionData(this.sessionID).setStatus("Win");
             else if (currAttempt == 5) WordleServer.getSessionData(this.sessionID).setStatus("Gameover");
             
             // Send the HTTP response
-            response = htmlGenerator.generateWordlePage(fullGameState);
-            sendHttpResponse(writer, 200, "text/html", response);
+            sendPage(writer, "");
         }
     }
 
@@ -365,99 +529,392 @@ public class HttpHandler implements Runnable {
     // HELPERS METHODS ------------------------------------------------------------
     /**
      * Sends an HTTP response to the client.
+     * HTML and JSON contents of at least WordleServer.getGzipMinSize() bytes are compressed with gzip
+     * when the client accepts it. Otherwise the content is encoded once, straight into the buffers of the writer.
+     * Bodies longer than a chunk, sized to the send buffer of the socket or configured, are sent in chunks.
      *
-     * @param writer      the PrintWriter object used to write the response to the client
+     * @param writer      the ResponseWriter used to write the response to the client
      * @param statusCode  the status code of the response
      * @param contentType the content type of the response
      * @param content     the content of the response
      */
-    private void sendHttpResponse(PrintWriter writer, int statusCode, String contentType, String content) {
-        // Check if the content should be chunked and get status message
-        boolean toChunk = content.length() > WordleServer.getMaxChunckSize();
-        String statusMessage = getStatusMessage(statusCode);
-
-        // Get content-length in bytes
-        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
-        int contentLength = contentBytes.length;
-
-        // Prepare the HTTP response headers
-        Map<String, String> responseHeaders = new HashMap<>();
-        responseHeaders.put("Content-Type", contentType);
-        if (toChunk) responseHeaders.put("Transfer-Encoding", "chunked");
-        else responseHeaders.put("Content-Length", String.valueOf(contentLength));
-        if (this.newSession) responseHeaders.put("Set-Cookie", "SESSID=" + this.sessionID + "; path=/; Max-Age=600");
-        if(this.keepAliveRequest) responseHeaders.put("Connection", "close");
-        responseHeaders.put("Date", new Date().toString());
-        responseHeaders.put("Server", String.valueOf(this.serverID));
-
-        // Send the HTTP response
-        writer.println("HTTP/1.1 " + statusCode + " " + statusMessage);
-        System.out.println("HTTP/1.1 " + statusCode + " " + statusMessage);
-        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-            writer.println(header.getKey() + ": " + header.getValue());
-            System.out.println(header.getKey() + ": " + header.getValue());
-        }
-
-        writer.println();
-        System.out.println();
-
-        if (toChunk) sendContentInChunks(writer, content);
+    private void sendHttpResponse(ResponseWriter writer, int statusCode, String contentType, String content) {
+        // Get content-length in bytes, without encoding the content
+        int contentLength = ResponseWriter.utf8Length(content);
+
+        // Compress before chunking, so that the chunks frame the compressed body
+        boolean isCompressible = ResponseHeaders.isCompressible(contentType);
+        byte[] gzipped = null;
+        if (isCompressible && contentLength >= WordleServer.getGzipMinSize() && Gzip.isAccepted(parser.getHeader("Accept-Encoding")))
+            gzipped = Gzip.compress(content.getBytes(StandardCharsets.UTF_8), WordleServer.getGzipLevel());
+        int bodyLength = (gzipped != null) ? gzipped.length : contentLength;
+
+        // Check if the body should be chunked
+        boolean toChunk = bodyLength > this.chunkSize;
+        writeResponseHeaders(writer, statusCode, contentType, gzipped != null, bodyLength, toChunk, null);
+
+        // A response to HEAD carries the headers only
+        if (this.method != null && this.method.equals("HEAD")) return;
+        if (gzipped != null) {
+            if (toChunk) writer.writeChunked(gzipped, 0, gzipped.length, this.chunkSize);
+            else writer.write(gzipped);
+        }
+        else if (toChunk) writer.writeChunkedUtf8(content, contentLength, this.chunkSize);
+        else writer.writeUtf8(content);
+    }
+
+    /**
+     * Sends an answer of the guess endpoint whose message is a row of the game state of the session, "row:guess:color".
+     *
+     * @param writer the ResponseWriter used to write the response to the client
+     * @param status the status prefix of the answer, from JsonWriter
+     * @param row    the index of the row
+     */
+    private void sendJsonGameState(ResponseWriter writer, byte[] status, int row) {
+        SessionData session = WordleServer.getSessionData(this.sessionID);
+        String guess = session.getGuess(row);
+        String color = session.getColorPattern(row);
+        int length = JsonWriter.gameStateLength(status, row, guess, color);
+        if (!beginJsonBody(writer, length)) return;
+        JsonWriter.writeGameState(writer, status, row, guess, color);
+        endJsonBody(writer, length);
+    }
+
+    /**
+     * Sends an answer of the guess endpoint with the given message.
+     *
+     * @param writer  the ResponseWriter used to write the response to the client
+     * @param status  the status prefix of the answer, from JsonWriter
+     * @param message the message of the answer
+     */
+    private void sendJsonMessage(ResponseWriter writer, byte[] status, String message) {
+        int length = JsonWriter.messageLength(status, message);
+        if (!beginJsonBody(writer, length)) return;
+        JsonWriter.writeMessage(writer, status, message);
+        endJsonBody(writer, length);
+    }
+
+    /**
+     * Sends a precomputed answer of the guess endpoint.
+     *
+     * @param writer the ResponseWriter used to write the response to the client
+     * @param body   the whole answer, from JsonWriter
+     */
+    private void sendJson(ResponseWriter writer, byte[] body) {
+        if (!beginJsonBody(writer, body.length)) return;
+        writer.writeBody(body);
+        endJsonBody(writer, body.length);
+    }
+
+    /**
+     * Writes the headers of a JSON answer, then starts its body, in chunks if it is longer than a chunk.
+     * The answers are a few dozen bytes long, too short to be worth compressing.
+     *
+     * @param writer the ResponseWriter used to write the response to the client
+     * @param length the length of the answer, in bytes
+     * @return true if the body is to be written, false if the response carries the headers only (HEAD)
+     */
+    private boolean beginJsonBody(ResponseWriter writer, int length) {
+        boolean toChunk = length > this.chunkSize;
+        writeResponseHeaders(writer, 200, "application/json", false, length, toChunk, null);
+        if (this.method != null && this.method.equals("HEAD")) return false;
+        if (toChunk) writer.beginChunked(length, this.chunkSize);
+        return true;
+    }
+
+    private void endJsonBody(ResponseWriter writer, int length) {
+        if (length > this.chunkSize) writer.endChunked();
+    }
+
+    /**
+     * Sends the game page of the session, streamed in chunks as it is produced: the headers and the cached
+     * prefix (head, styles and logo) are written to the client before the board is rendered, from the compiled
+     * PageTemplate, then come the board and the cached suffix. When the client accepts gzip, the page is
+     * a single gzip member made of the precompressed prefix, the board and the precompressed suffix.
+     * Without a socket (NioServer), the page is gathered with the other responses instead.
+     *
+     * @param writer       the ResponseWriter used to write the response to the client
+     * @param errorMessage an optional error message to display on the page
+     * @throws IOException if the beginning of the page cannot be written
+     */
+    private void sendPage(ResponseWriter writer, String errorMessage) throws IOException {
+        PageCache page = pageCache();
+        // The static parts make most of the page, whatever the board
+        int staticLength = page.getPrefix().length + page.getSuffix().length;
+        boolean gzipped = staticLength >= WordleServer.getGzipMinSize() && Gzip.isAccepted(parser.getHeader("Accept-Encoding"));
+
+        // Only the plain page of a session may be validated later, not a page showing an error or answering a POST
+        boolean validated = !this.method.equals("POST") && (errorMessage == null || errorMessage.isEmpty());
+        writeResponseHeaders(writer, 200, "text/html", gzipped, -1, true, validated ? pageETag(gzipped) : null);
+
+        // A response to HEAD carries the headers only, so the page is not even rendered
+        if (this.method.equals("HEAD")) return;
+        // The cached parts are not copied: they go out straight from their shared buffers
+        writer.beginChunked(-1, this.chunkSize);
+        if (gzipped) {
+            writer.appendChunked(Gzip.header(), 0, Gzip.header().length);
+            writer.appendChunked(page.getGzipPrefixBuffer());
+        }
+        else writer.appendChunked(page.getPrefixBuffer());
+        flushResponses(writer);
+
+        WordleEvents.PageRenderEvent renderEvent = WordleEvents.beginPageRender();
+        long renderStart = System.nanoTime();
+        PageTemplate.Buffer board = this.pageBuffer;
+        board.reset();
+        page.getTemplate().renderBody(WordleServer.getSessionData(this.sessionID), errorMessage, board);
+        if (traced && Trace.PAGE.isEnabled(Trace.DEBUG)) Trace.PAGE.debug(this.sessionID, "Board rendered: " + board.getSize() + " bytes");
+        if (gzipped) {
+            Gzip.Segment gzipBoard = Gzip.deflate(board.getBytes(), 0, board.getSize(), WordleServer.getGzipLevel(), false);
+            byte[] trailer = Gzip.trailer(page.getGzipPrefix(), gzipBoard, page.getGzipSuffix());
+            ServerMetrics.Phase.RENDER.record(System.nanoTime() - renderStart);
+            WordleEvents.endPageRender(renderEvent, this.sessionID, gzipped, board.getSize());
+            writer.appendChunked(gzipBoard.getData(), 0, gzipBoard.getData().length);
+            writer.appendChunked(page.getGzipSuffixBuffer());
+            writer.appendChunked(trailer, 0, trailer.length);
+        }
         else {
-            writer.println(content);
-            System.out.println(content);
-            writer.flush();
+            ServerMetrics.Phase.RENDER.record(System.nanoTime() - renderStart);
+            WordleEvents.endPageRender(renderEvent, this.sessionID, gzipped, board.getSize());
+            writer.appendChunked(board.getBytes(), 0, board.getSize());
+            writer.appendChunked(page.getSuffixBuffer());
         }
+        writer.endChunked();
     }
 
     /**
-     * Sends the content in chunks to the PrintWriter.
-     * Each chunk is of size determined by WordleServer.getMaxChunckSize().
-     * 
-     * @param writer  the PrintWriter to send the content to
-     * @param content the content to be sent in chunks
+     * Sends a static asset, with the body and headers it was built with, or a 304 when the client
+     * already holds it. A versioned URL may be cached for good, the others are revalidated on every use.
+     *
+     * @param writer  the ResponseWriter used to write the response to the client
+     * @param asset   the asset to send
+     * @param version the version requested in the query string, or null if there is none
      */
-    private void sendContentInChunks(PrintWriter writer, String content) {
-        int chunkSize = WordleServer.getMaxChunckSize();
+    private void sendAsset(ResponseWriter writer, StaticAssets.Asset asset, String version) {
+        boolean gzipped = asset.isCompressible() && Gzip.isAccepted(parser.getHeader("Accept-Encoding"));
+        boolean notModified = asset.matches(parser.getHeader("If-None-Match"));
 
-        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        if (notModified) {
+            sendNotModified(writer, asset.getETag(gzipped), asset.isCompressible(), asset.getCacheControl(version));
+            return;
+        }
 
-        for (int i = 0; i < contentBytes.length; i += chunkSize) {
-            int end = Math.min(i + chunkSize, contentBytes.length);
-            byte[] chunkBytes = Arrays.copyOfRange(contentBytes, i, end);
+        this.statusCode = 200;
+        writer.write(ResponseHeaders.status(200));
+        writer.write(asset.getHeaders(gzipped));
+        writer.writeHeader("Cache-Control", asset.getCacheControl(version));
+        writer.write(ResponseHeaders.connection(this.closeConnection));
+        writer.write(ResponseHeaders.date());
+        writer.writeCRLF();
+
+        // A response to HEAD carries the headers only
+        if (this.method.equals("GET")) writer.write(asset.getBody(gzipped));
+    }
 
-            // Convert chunkBytes back to a string for printing
-            String chunk = new String(chunkBytes, StandardCharsets.UTF_8);
+    /**
+     * Sends a 304 response: the validators of the representation the client would have received, but no body.
+     *
+     * @param writer       the ResponseWriter used to write the response to the client
+     * @param etag         the ETag of the representation
+     * @param vary         whether the representation depends on the Accept-Encoding header
+     * @param cacheControl the Cache-Control value of the representation
+     */
+    private void sendNotModified(ResponseWriter writer, String etag, boolean vary, String cacheControl) {
+        this.statusCode = 304;
+        writer.write(ResponseHeaders.status(304));
+        writer.writeHeader("ETag", etag);
+        if (vary) writer.writeHeader("Vary", "Accept-Encoding");
+        writer.writeHeader("Cache-Control", cacheControl);
+        writer.write(ResponseHeaders.connection(this.closeConnection));
+        writer.write(ResponseHeaders.date());
+        writer.writeCRLF();
+    }
 
-            System.out.println(Integer.toHexString(chunkBytes.length));
-            System.out.println(chunk);
-            writer.println(Integer.toHexString(chunkBytes.length));
-            writer.println(chunk);
-            writer.flush();
+    /**
+     * Returns the ETag of the game page of the current session. It changes with the game state of the session,
+     * and with the server run and the cached page parts, which the page is also made of.
+     *
+     * @param gzipped whether the page is compressed with gzip, which needs its own strong ETag
+     * @return the quoted ETag
+     */
+    private String pageETag(boolean gzipped) {
+        // Read once, so that both encodings are checked against the same version, and the page sent is tagged with it
+        if (this.sessionVersion < 0) this.sessionVersion = WordleServer.getSessionData(this.sessionID).getVersion();
+        return "\"" + this.sessionID + "-" + this.sessionVersion + "-" + this.serverID + "-" + pageCache().getVersion() + (gzipped ? "-gzip\"" : "\"");
+    }
+
+    /**
+     * Returns the cached page parts, fetched once per request, so that the ETag and the page sent come from the same parts.
+     *
+     * @return the page cache
+     */
+    private PageCache pageCache() {
+        if (this.pageCache == null) this.pageCache = PageCache.get();
+        return this.pageCache;
+    }
+
+    /**
+     * Tells whether the client already holds the current game page of its session, in either encoding.
+     *
+     * @return true if the If-None-Match header of the request matches the page, false otherwise
+     */
+    private boolean isPageNotModified() {
+        String ifNoneMatch = parser.getHeader("If-None-Match");
+        if (ifNoneMatch == null || this.newSession) return false;
+
+        String plain = pageETag(false);
+        String gzipped = pageETag(true);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(plain) || tag.equals(gzipped)) return true;
         }
+        return false;
+    }
 
-        // Send a zero-size chunk to indicate the end of the content
-        System.out.println("0\r\n");
-        writer.println("0");
-        writer.println();
-        writer.flush();
+    /**
+     * Writes the status line and the headers of a response, up to the empty line ending them.
+     *
+     * @param writer      the ResponseWriter used to write the response to the client
+     * @param statusCode  the status code of the response
+     * @param contentType the content type of the response
+     * @param gzipped     whether the body is compressed with gzip
+     * @param bodyLength  the length of the body as sent, in bytes, ignored if the body is sent in chunks
+     * @param toChunk     whether the body is sent in chunks
+     * @param etag        the ETag of the body, or null if the response cannot be validated
+     */
+    private void writeResponseHeaders(ResponseWriter writer, int statusCode, String contentType, boolean gzipped, int bodyLength, boolean toChunk, String etag) {
+        // Status line, Server, Content-Type, Content-Encoding and Vary: serialized once per status and content type
+        this.statusCode = statusCode;
+        writer.write(ResponseHeaders.prefix(statusCode, contentType, gzipped));
+        if (toChunk) writer.writeHeader("Transfer-Encoding", "chunked");
+        else writer.writeHeader("Content-Length", bodyLength);
+        if (etag != null) {
+            writer.writeHeader("ETag", etag);
+            writer.writeHeader("Cache-Control", PAGE_CACHE_CONTROL);
+        }
+        if (this.newSession) {
+            writer.writeAscii("Set-Cookie: SESSID=");
+            writer.writeAscii(this.sessionID);
+            writer.writeAscii("; path=/; Max-Age=600");
+            writer.writeCRLF();
+        }
+        writer.write(ResponseHeaders.connection(this.closeConnection));
+        writer.write(ResponseHeaders.date());
+        writer.writeCRLF();
     }
 
     /**
      * Sends an error response to the client.
      * 
-     * @param writer     the PrintWriter object used to write the response
+     * @param writer     the ResponseWriter used to write the response
      * @param statusCode the HTTP status code of the error response
      */
-    private void sendErrorResponse(PrintWriter writer, int statusCode) {
-        String statusMessage = getStatusMessage(statusCode);
+    private void sendErrorResponse(ResponseWriter writer, int statusCode) {
+        // After an error, the rest of the request may still be unread: give up on the connection
+        if (statusCode >= 400) this.closeConnection = true;
+
+        this.statusCode = statusCode;
+        writer.write(ResponseHeaders.prefix(statusCode, "text/plain", false));
+        writer.writeHeader("Content-Length", 0);
+        if (statusCode == 303) {
+            writer.writeAscii("Location: http://localhost:");
+            writer.writeDecimal(WordleServer.getPort());
+            writer.writeAscii("/play.html");
+            writer.writeCRLF();
+        }
+        writer.write(ResponseHeaders.connection(this.closeConnection));
+        writer.write(ResponseHeaders.date());
+        writer.writeCRLF();
+    }
+
+    /**
+     * Builds a bodiless response that closes the connection, for requests
+     * rejected before reaching a handler.
+     *
+     * @param statusCode the status code of the response
+     * @return the raw bytes of the response
+     */
+    static byte[] closingResponse(int statusCode) {
+        return ("HTTP/1.1 " + statusCode + " " + getStatusMessage(statusCode) + CRLF +
+                "Content-Type: text/plain" + CRLF +
+                "Content-Length: 0" + CRLF +
+                "Connection: close" + CRLF + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads from the client until the parser holds a complete request, or a request it rejects.
+     * A request already buffered (pipelined after the previous one) is returned without reading.
+     * The request deadline starts with the first byte of the request; from then on,
+     * each read must complete within the read timeout and before the deadline.
+     * Without a socket, nothing is read: a request that has not fully arrived is left to the NioServer.
+     *
+     * @return HttpRequestParser.COMPLETE, END_OF_STREAM if the client closed the connection
+     *         between two requests or no other request has been received, or the status code to reject the request with
+     * @throws IOException if a read fails or times out, or the request deadline passes
+     */
+    private int readRequest() throws IOException {
+        if (this.input == null) {
+            int result = parser.parse();
+            if (result == HttpRequestParser.NEED_MORE) return END_OF_STREAM;
+            startRequest();
+            return result;
+        }
+        if (parser.hasBufferedBytes()) startRequest();
+
+        int result;
+        while ((result = parser.parse()) == HttpRequestParser.NEED_MORE) {
+            if (this.requestDeadline != 0) armReadTimeout();
+            if (parser.read(input) == -1) return parser.hasBufferedBytes() ? 400 : END_OF_STREAM;
 
-        writer.println("HTTP/1.1 " + statusCode + " " + statusMessage);
-        writer.println("Content-Type: text/plain");
-        writer.println("Content-Length: 0");
-        if (statusCode == 303) writer.println("Location: http://localhost:8008/play.html");
-        // writer.println();
-        // writer.println(error);
-        writer.flush();
+            if (this.requestDeadline == 0) startRequest();
+            else if (System.currentTimeMillis() > this.requestDeadline) throw new RequestRejectedException(408);
+        }
+        return result;
+    }
+
+    /**
+     * Starts the request deadline and the request timing, and decides whether the request is traced,
+     * on the first byte of the request.
+     */
+    private void startRequest() {
+        this.requestDeadline = System.currentTimeMillis() + WordleServer.getRequestTimeout();
+        this.requestStart = System.nanoTime();
+        this.traced = Trace.select();
+        this.requestEvent = WordleEvents.beginRequest();
+    }
+
+    /**
+     * Sets the socket timeout of the next read to the read timeout, shortened if the request deadline is closer.
+     *
+     * @throws IOException if the request deadline has already passed
+     */
+    private void armReadTimeout() throws IOException {
+        if (this.clientSocket == null) return;
+        long remaining = this.requestDeadline - System.currentTimeMillis();
+        if (remaining <= 0) throw new RequestRejectedException(408);
+        clientSocket.setSoTimeout((int) Math.min(WordleServer.getReadTimeout(), remaining));
+    }
+
+    /**
+     * Answers a request that could not be read: 408 when the client was too slow,
+     * the status carried by a RequestRejectedException, or nothing if the connection failed.
+     * The connection is closed in every case.
+     *
+     * @param writer the ResponseWriter used to send the response
+     * @param e      the exception raised while reading the request
+     */
+    private void rejectRequest(ResponseWriter writer, IOException e) {
+        if (e instanceof RequestRejectedException) {
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN))
+                Trace.REQUEST.warn(null, "Request rejected ::" + getStatusMessage(((RequestRejectedException) e).getStatusCode()));
+            sendErrorResponse(writer, ((RequestRejectedException) e).getStatusCode());
+        }
+        else if (e instanceof SocketTimeoutException) {
+            if (traced && Trace.REQUEST.isEnabled(Trace.WARN)) Trace.REQUEST.warn(null, "Request rejected ::" + getStatusMessage(408));
+            sendErrorResponse(writer, 408);
+        }
+        this.closeConnection = true;
     }
 
     /**
@@ -475,57 +932,172 @@ public class HttpHandler implements Runnable {
 
     /**
      * Checks if the given URI is valid and handles different types of requests.
+     * The path is looked up in the route table; the query string is left to the route.
      * 
      * @param uri The URI to be validated.
-     * @param writer The PrintWriter object used for writing responses.
-     * @param reader The BufferedReader object used for reading requests.
+     * @param writer The ResponseWriter object used for writing responses.
      * @return true if the URI is valid and the request can proceed, false otherwise.
      */
-    private boolean isURIValid(String uri, PrintWriter writer, BufferedReader reader) {
-        // Call for root page
-        if(uri.matches("^/$")) {
-            System.out.println(uri + " ::Call for root page. Redirecting to /play.html");
-            sendErrorResponse(writer, 303); // Redirect to /play.html
-            return true;
+    private boolean isURIValid(String uri, ResponseWriter writer) {
+        Endpoint endpoint = ROUTES.lookup(uri);
+        if (endpoint == null) {
+            // Invalid URI
+            sendErrorResponse(writer, 404);
+            return false;
         }
-        else if (uri.matches("^/play\\.html$")) return true;
-        // Call for guess via GET
-        else if (uri.matches("^/play\\.html/guess\\?word=[A-Z]{5}$") && this.method.equals("GET")) {
-            this.isRequestGuess = true;
-            this.guess = uri.split("=")[1].toLowerCase();
+        this.routeID = endpoint.routeID;
+        int queryStart = uri.indexOf('?');
+        String query = (queryStart < 0) ? "" : uri.substring(queryStart + 1);
+        return endpoint.route.handle(this, query, writer);
+    }
 
-            if (!isGuessValid(this.guess)) {
-                String response = "{\"Status\": \"Invalid\", \"Message\": \"Word does not exist. Try another.\"}";
-                sendHttpResponse(writer, 200, "application/json", response);
-                if (!this.sessionID.isEmpty() && WordleServer.hasSession(sessionID))
-                    WordleServer.getSessionData(this.sessionID).decrementAttempts();
-                return false;
-            }
-            return true;
-        }
+
+    // ROUTES METHODS ------------------------------------------------------------
+    /**
+     * Registers the handler of a path, and the path in the metrics.
+     */
+    private static void addRoute(String path, Route route) {
+        ROUTES.add(path, new Endpoint(ServerMetrics.registerRoute(path), route));
+    }
+
+    /**
+     * Handles a request for the root page by redirecting to /play.html.
+     */
+    private boolean routeRoot(String query, ResponseWriter writer) {
+        if (traced && Trace.REQUEST.isEnabled(Trace.DEBUG)) Trace.REQUEST.debug(null, "/ ::Call for root page. Redirecting to /play.html");
+        sendErrorResponse(writer, 303); // Redirect to /play.html
+        return false;
+    }
+
+    /**
+     * Handles a request for the game page, rendered once the headers are checked.
+     */
+    private boolean routePlay(String query, ResponseWriter writer) { return true; }
+
+    /**
+     * Handles a guess, sent by GET as /play.html/guess?word=XXXXX by the page when JavaScript is enabled,
+     * or by POST with the guess in the body otherwise.
+     */
+    private boolean routeGuess(String query, ResponseWriter writer) {
         // Call for guess via POST
-        else if (uri.matches("^/play\\.html/guess$") && this.method.equals("POST")) {
+        if (this.method.equals("POST")) {
             this.isRequestGuess = true;
             return true;
         }
-        // Call for favicon
-        else if (uri.matches("^/favicon.ico$")) {
-            sendErrorResponse(writer, 204);
+
+        // Call for guess via GET
+        String word = getQueryParameter(query, "word");
+        if (!this.method.equals("GET") || !isUpperCaseWord(word)) {
+            sendErrorResponse(writer, 404);
             return false;
         }
-        // Call for game restart
-        else if (uri.matches("^/play\\.html/restart$|^/restart$")) {
-            System.out.println(uri + " ::Call for game restart");
-            WordleServer.removeSession(this.sessionID);
-            this.sessionID = "";
-            sendErrorResponse(writer, 303);
+        this.isRequestGuess = true;
+        this.guess = word.toLowerCase();
+
+        if (!isGuessValid(this.guess)) {
+            sendJson(writer, JsonWriter.INVALID_WORD);
+            if (!this.sessionID.isEmpty() && WordleServer.hasSession(sessionID))
+                WordleServer.getSessionData(this.sessionID).decrementAttempts();
             return false;
         }
+        return true;
+    }
 
-        // Invalid URI
-        sendErrorResponse(writer, 404);
+    /**
+     * Handles a request for the game restart by dropping the session and redirecting to /play.html.
+     */
+    private boolean routeRestart(String query, ResponseWriter writer) {
+        if (traced && Trace.SESSION.isEnabled(Trace.INFO)) Trace.SESSION.info(this.sessionID, parser.getURI() + " ::Call for game restart");
+        WordleServer.removeSession(this.sessionID);
+        this.sessionID = "";
+        sendErrorResponse(writer, 303);
         return false;
     }
+
+    /**
+     * Handles a request for the favicon, which the game does not have.
+     */
+    private boolean routeFavicon(String query, ResponseWriter writer) {
+        sendErrorResponse(writer, 204);
+        return false;
+    }
+
+    /**
+     * Handles a request for the server metrics, in the Prometheus text format.
+     */
+    private boolean routeMetrics(String query, ResponseWriter writer) {
+        if (!this.method.equals("GET")) {
+            sendErrorResponse(writer, 404);
+            return false;
+        }
+        sendHttpResponse(writer, 200, "text/plain; version=0.0.4", ServerMetrics.render());
+        return false;
+    }
+
+    /**
+     * Handles a request for the tracing configuration, changed by the settings of the query string if there are any,
+     * e.g. /admin/trace?GAME=debug&session=ID. Only clients on the same host may use it: others get a 404.
+     */
+    private boolean routeAdminTrace(String query, ResponseWriter writer) {
+        if (!this.method.equals("GET") || !isLocalClient()) {
+            sendErrorResponse(writer, 404);
+            return false;
+        }
+        try { Trace.configure(query); }
+        catch (IllegalArgumentException e) {
+            sendHttpResponse(writer, 400, "text/plain", e.getMessage() + "\n");
+            return false;
+        }
+        sendHttpResponse(writer, 200, "text/plain", Trace.describe());
+        return false;
+    }
+
+    /**
+     * Handles a request for a static asset linked by the page: the style sheet, the scripts or the logo.
+     */
+    private boolean routeStatic(String query, ResponseWriter writer) {
+        String uri = parser.getURI();
+        int queryStart = uri.indexOf('?');
+        StaticAssets.Asset asset = StaticAssets.get().find((queryStart < 0) ? uri : uri.substring(0, queryStart));
+        if (asset == null || !(this.method.equals("GET") || this.method.equals("HEAD"))) {
+            sendErrorResponse(writer, 404);
+            return false;
+        }
+        sendAsset(writer, asset, getQueryParameter(query, "v"));
+        return false;
+    }
+
+    /**
+     * Returns the value of a parameter of the query string, without decoding it.
+     *
+     * @param query the query string, without the leading '?'
+     * @param name  the name of the parameter
+     * @return the value of the first parameter with this name, or null if there is none
+     */
+    private static String getQueryParameter(String query, String name) {
+        int from = 0;
+        while (from < query.length()) {
+            int to = query.indexOf('&', from);
+            if (to < 0) to = query.length();
+            if (to - from > name.length() && query.startsWith(name, from) && query.charAt(from + name.length()) == '=')
+                return query.substring(from + name.length() + 1, to);
+            from = to + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a word is made of exactly five uppercase letters, as sent by the page.
+     *
+     * @param word the word to check, possibly null
+     * @return true if the word is well-formed, false otherwise
+     */
+    private static boolean isUpperCaseWord(String word) {
+        if (word == null || word.length() != 5) return false;
+        for (int i = 0; i < word.length(); i++)
+            if (word.charAt(i) < 'A' || word.charAt(i) > 'Z') return false;
+        return true;
+    }
  
     /**
      * Checks if a given guess is valid.
@@ -534,7 +1106,16 @@ public class HttpHandler implements Runnable {
      * @param guess the guess to be validated
      * @return true if the guess is valid, false otherwise
      */
-    private boolean isGuessValid(String guess) { return guess.length() == 5 && WordleWordSet.WORD_SET.contains(guess); }
+    private boolean isGuessValid(String guess) {
+        WordleEvents.GuessEvent event = WordleEvents.beginGuess();
+        long start = System.nanoTime();
+        boolean valid = guess.length() == 5 && WordleWordSet.WORD_SET.contains(guess);
+        long time = System.nanoTime() - start;
+        ServerMetrics.Phase.VALIDATE.record(time);
+        this.nestedNanos += time;
+        WordleEvents.endGuess(event, this.sessionID, guess, valid, null);
+        return valid;
+    }
 
     /**
      * Generates a secret word by randomly selecting a word from the word list.
@@ -558,6 +1139,8 @@ public class HttpHandler implements Runnable {
      */
     private String responseBuilder(String guess) {
         if (guess == null) return null;
+        WordleEvents.GuessEvent event = WordleEvents.beginGuess();
+        long start = System.nanoTime();
 
         // Initialise response and tracking arrays
         char[] pattern = new char[5];
@@ -593,6 +1176,8 @@ public class HttpHandler implements Runnable {
             if (!usedInGuess[i]) { pattern[i] = 'B'; }
 
         String response = new String(pattern);
+        ServerMetrics.Phase.SCORE.record(System.nanoTime() - start);
+        WordleEvents.endGuess(event, this.sessionID, guess, true, response);
         return response;
     }
 
@@ -602,79 +1187,106 @@ public class HttpHandler implements Runnable {
      * @param statusCode the HTTP status code
      * @return the status message
      */
-    private static String getStatusMessage(int statusCode) {
+    static String getStatusMessage(int statusCode) {
         switch (statusCode) {
             case 200: return "OK";
             case 204: return "No Content";
             case 303: return "See Other";
+            case 304: return "Not Modified";
             case 400: return "Bad Request";
             case 404: return "Not Found";
             case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
             case 411: return "Length Required";
+            case 413: return "Content Too Large";
+            case 414: return "URI Too Long";
+            case 431: return "Request Header Fields Too Large";
             case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
             case 505: return "HTTP Version Not Supported";
             default: return "Unknown Status";
         }
     }
 
     /**
-     * Reads the body of the HTTP request from the provided BufferedReader and returns it as a String.
+     * Extracts the session ID from the SESSID cookie of a Cookie header, which may hold other cookies.
      *
-     * @param reader the BufferedReader used to read the request body
-     * @return the body of the HTTP request as a String
+     * @param cookie the value of the Cookie header
+     * @return the session ID, or an empty String if there is no SESSID cookie
      */
-    private String getBody(BufferedReader reader) {
-        try {
-            // Check if the request is chunked
-            if (this.isChunked) { return getChunkedBody(reader); }
-
-            // If not chunked, read the body based on Content-Length
-            int bytesRead = 0;
-            while (bytesRead < this.buffer.length) {
-                int result = reader.read(buffer, bytesRead, this.buffer.length - bytesRead);
-                if (result == -1) break;
-                bytesRead += result;
-            }
-            return new String(buffer, 0, bytesRead);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+    private static String getSessionCookie(String cookie) {
+        int from = 0;
+        while (from < cookie.length()) {
+            int to = cookie.indexOf(';', from);
+            if (to < 0) to = cookie.length();
+            int equals = cookie.indexOf('=', from);
+            if (equals > 0 && equals < to && cookie.substring(from, equals).trim().equals("SESSID"))
+                return cookie.substring(equals + 1, to).trim();
+            from = to + 1;
         }
+        return "";
     }
 
     /**
-     * Reads the chunked body from the provided BufferedReader and returns it as a String.
+     * Checks that a session ID is made of lowercase hexadecimal digits and dashes, as generated by UUID.
      *
-     * @param reader the BufferedReader to read the chunked body from
-     * @return the chunked body as a String
+     * @param sessionID the session ID to check
+     * @return true if the session ID is well-formed, false otherwise
      */
-    private String getChunkedBody(BufferedReader reader) {
-        try {
-            StringBuilder bodyBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Parse the chunk size
-                int chunkSize = Integer.parseInt(line.trim(), 16); // Chunk sizes are in hex
-                if (chunkSize == 0) break;
-
-                // Read the chunk data
-                char[] buffer = new char[chunkSize];
-                int bytesRead = 0;
-                while (bytesRead < chunkSize) {
-                    int result = reader.read(buffer, bytesRead, chunkSize - bytesRead);
-                    if (result == -1) break;
-                    bytesRead += result;
-                }
-                bodyBuilder.append(buffer, 0, bytesRead);
+    private static boolean isSessionIDValid(String sessionID) {
+        if (sessionID.isEmpty()) return false;
+        for (int i = 0; i < sessionID.length(); i++) {
+            char c = sessionID.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || c == '-')) return false;
+        }
+        return true;
+    }
 
-                // Skip the newline after the chunk
-                reader.readLine();
-            }
-            return bodyBuilder.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+
+    /**
+     * The handler of a route. Routes are registered once as method references on HttpHandler,
+     * and called on the handler of the current request.
+     */
+    @FunctionalInterface
+    private interface Route {
+        /**
+         * Handles a request for the route.
+         *
+         * @param handler the handler of the request
+         * @param query   the query string of the request, empty if there is none
+         * @param writer  the ResponseWriter used to send responses
+         * @return true if the request goes on to the game logic, false if it has been answered
+         */
+        boolean handle(HttpHandler handler, String query, ResponseWriter writer);
+    }
+
+    /**
+     * The handler of a route, with the ID its requests are counted under in the metrics.
+     */
+    private static final class Endpoint {
+        private final int routeID;
+        private final Route route;
+
+        Endpoint(int routeID, Route route) {
+            this.routeID = routeID;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Signals a request refused because it broke one of the limits of the server,
+     * carrying the status code to answer with.
+     */
+    private static class RequestRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+
+        RequestRejectedException(int statusCode) {
+            super("Request rejected with status " + statusCode);
+            this.statusCode = statusCode;
         }
+
+        int getStatusCode() { return this.statusCode; }
     }
 
 }
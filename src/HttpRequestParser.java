@@ -0,0 +1,524 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The HttpRequestParser class is an incremental HTTP/1.1 request parser working on raw bytes.
+ * Received bytes are appended to a reusable buffer, and parse() resumes where it stopped
+ * until a full request (headers and body) has been received. The method, URI, version and
+ * headers are kept as offsets into the buffer: Strings are only created for the values asked for.
+ *
+ * Once a request has been handled, next() drops it and keeps the bytes that follow,
+ * so that pipelined requests are parsed from the same buffer.
+ */
+public class HttpRequestParser {
+    // Results of parse(), besides the status code of a rejected request
+    public static final int NEED_MORE = 0;
+    public static final int COMPLETE = 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_CHUNK_SIZE_LINE = 256; // hex size and chunk extensions
+
+    // Parsing states
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILERS = 6;
+    private static final int DONE = 7;
+
+    private final int maxRequestLine;
+    private final int maxHeaderLine;
+    private final int maxHeaders;
+    private final int maxBody;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer view = ByteBuffer.wrap(buffer);
+    private int start = 0; // index of the first byte of the current request
+    private int limit = 0; // index right after the last received byte
+    private int state = REQUEST_LINE;
+    private int error = 0; // status code of a rejected request, which ends the connection
+
+    // Positions below are relative to start, so that the buffer can be compacted mid-request
+    private int pos = 0;  // next byte to parse
+    private int scan = 0; // next byte to look at for a line terminator
+    private int methodEnd, uriStart, uriEnd, versionStart, versionEnd;
+    private int headerCount = 0;
+    private int trailerCount = 0;
+    private int[] headerOffsets = new int[4 * 16]; // name start, name end, value start, value end of each header
+    private boolean chunked = false;
+    private int bodyStart, bodyLength, chunkRemaining;
+    private int framing; // length of the chunk-size lines of the body, extensions included
+    private int end; // length of the complete request
+
+    /**
+     * Creates a parser enforcing the limits of the server.
+     */
+    public HttpRequestParser() {
+        this(WordleServer.getMaxRequestLineLength(), WordleServer.getMaxHeaderLineLength(),
+             WordleServer.getMaxHeaders(), WordleServer.getMaxBodySize());
+    }
+
+    /**
+     * Creates a parser enforcing the given limits.
+     *
+     * @param maxRequestLine the maximum length of the request line, answered with 414 beyond
+     * @param maxHeaderLine  the maximum length of a header line, answered with 431 beyond
+     * @param maxHeaders     the maximum number of headers, answered with 431 beyond
+     * @param maxBody        the maximum length of the decoded body and of its chunk-size lines, answered with 413 beyond
+     */
+    public HttpRequestParser(int maxRequestLine, int maxHeaderLine, int maxHeaders, int maxBody) {
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderLine = maxHeaderLine;
+        this.maxHeaders = maxHeaders;
+        this.maxBody = maxBody;
+    }
+
+
+    // INPUT METHODS ------------------------------------------------------------
+    /**
+     * Reads the bytes available from the stream into the buffer, with a single read.
+     *
+     * @param in the stream to read from
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException if the read fails or times out
+     */
+    public int read(InputStream in) throws IOException {
+        ensureSpace();
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if (count > 0) limit += count;
+        return count;
+    }
+
+    /**
+     * Reads the bytes available from the channel into the buffer, with a single read.
+     *
+     * @param channel the channel to read from
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException if the read fails
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        ensureSpace();
+        view.limit(buffer.length).position(limit);
+        int count = channel.read(view);
+        if (count > 0) limit += count;
+        return count;
+    }
+
+    /**
+     * Makes room for at least one more byte: the bytes of the requests already handled are dropped
+     * first, and the buffer only grows if the current request fills it.
+     * The limits checked while parsing keep a single request from growing it without bound.
+     */
+    private void ensureSpace() {
+        if (limit < buffer.length) return;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            start = 0;
+            return;
+        }
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        view = ByteBuffer.wrap(buffer);
+    }
+
+
+    // PARSING METHODS ------------------------------------------------------------
+    /**
+     * Parses the bytes received so far, resuming where the previous call stopped.
+     *
+     * @return COMPLETE once a full request has been received, NEED_MORE if more bytes are needed,
+     *         or the status code to reject the request with (400, 413, 414 or 431)
+     */
+    public int parse() {
+        if (error != 0) return error;
+
+        while (true) {
+            int status;
+            int lineEnd;
+            switch (state) {
+                case REQUEST_LINE:
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) return (limit - start - pos > maxRequestLine) ? fail(414) : NEED_MORE;
+                    // Empty lines before the request line are ignored (RFC 9112, section 2.2)
+                    if (lineEnd == pos) {
+                        consumeLine();
+                        start += pos;
+                        pos = scan = 0;
+                        break;
+                    }
+                    if (lineEnd - pos > maxRequestLine) return fail(414);
+                    status = parseRequestLine(pos, lineEnd);
+                    if (status != 0) return fail(status);
+                    consumeLine();
+                    state = HEADERS;
+                    break;
+
+                case HEADERS:
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) return (limit - start - pos > maxHeaderLine) ? fail(431) : NEED_MORE;
+                    if (lineEnd == pos) {
+                        consumeLine();
+                        status = startBody();
+                        if (status != 0) return fail(status);
+                        break;
+                    }
+                    if (lineEnd - pos > maxHeaderLine || headerCount >= maxHeaders) return fail(431);
+                    status = parseHeaderLine(pos, lineEnd);
+                    if (status != 0) return fail(status);
+                    consumeLine();
+                    break;
+
+                case BODY:
+                    if (limit - start < bodyStart + bodyLength) return NEED_MORE;
+                    end = bodyStart + bodyLength;
+                    state = DONE;
+                    break;
+
+                case CHUNK_SIZE:
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) return (limit - start - pos > MAX_CHUNK_SIZE_LINE) ? fail(400) : NEED_MORE;
+                    long size = parseChunkSize(pos, lineEnd);
+                    if (size < 0) return fail(400);
+                    // The chunk-size lines count toward the body limit, so that tiny chunks with long extensions
+                    // cannot make the server parse much more than the body limit
+                    framing += scan + 1 - pos;
+                    if (bodyLength + framing + size > maxBody) return fail(413);
+                    consumeLine();
+                    chunkRemaining = (int) size;
+                    state = (size == 0) ? TRAILERS : CHUNK_DATA;
+                    break;
+
+                case CHUNK_DATA:
+                    // The chunk data is moved next to the previous chunks, so that the decoded body is contiguous
+                    int count = Math.min(limit - start - pos, chunkRemaining);
+                    System.arraycopy(buffer, start + pos, buffer, start + bodyStart + bodyLength, count);
+                    bodyLength += count;
+                    chunkRemaining -= count;
+                    pos += count;
+                    scan = pos;
+                    if (chunkRemaining > 0) return NEED_MORE;
+                    state = CHUNK_END;
+                    break;
+
+                case CHUNK_END:
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) return (limit - start - pos > 1) ? fail(400) : NEED_MORE;
+                    if (lineEnd != pos) return fail(400);
+                    consumeLine();
+                    state = CHUNK_SIZE;
+                    break;
+
+                case TRAILERS:
+                    // Trailer fields are not used: skip them up to the empty line ending the request,
+                    // within the limits of the header section, which they count toward
+                    lineEnd = findLineEnd();
+                    if (lineEnd < 0) return (limit - start - pos > maxHeaderLine) ? fail(431) : NEED_MORE;
+                    boolean last = (lineEnd == pos);
+                    if (!last && (lineEnd - pos > maxHeaderLine || headerCount + trailerCount++ >= maxHeaders)) return fail(431);
+                    consumeLine();
+                    dropFraming();
+                    if (last) {
+                        end = pos;
+                        state = DONE;
+                    }
+                    break;
+
+                default:
+                    return COMPLETE;
+            }
+        }
+    }
+
+    /**
+     * Drops the request that has just been handled, keeping the bytes received after it.
+     */
+    public void next() {
+        start += end;
+        if (start == limit) start = limit = 0;
+        state = REQUEST_LINE;
+        pos = scan = end = 0;
+        headerCount = trailerCount = 0;
+        chunked = false;
+        bodyStart = bodyLength = chunkRemaining = framing = 0;
+    }
+
+    /**
+     * Drops the chunk framing and the trailer lines parsed so far, which lie between the decoded body
+     * and the next byte to parse, so that they are not kept in the buffer while the rest of the request arrives.
+     */
+    private void dropFraming() {
+        int bodyEnd = bodyStart + bodyLength;
+        if (pos == bodyEnd) return;
+        System.arraycopy(buffer, start + pos, buffer, start + bodyEnd, limit - start - pos);
+        limit -= pos - bodyEnd;
+        pos = scan = bodyEnd;
+    }
+
+    private int fail(int statusCode) {
+        this.error = statusCode;
+        return statusCode;
+    }
+
+    /**
+     * Looks for the end of the current line, without scanning again the bytes already looked at.
+     *
+     * @return the end of the line without its CR or LF, relative to start, or -1 if the line is not complete yet
+     */
+    private int findLineEnd() {
+        for (int i = start + scan; i < limit; i++) {
+            if (buffer[i] != '\n') continue;
+            scan = i - start;
+            return (i > start + pos && buffer[i - 1] == '\r') ? scan - 1 : scan;
+        }
+        scan = limit - start;
+        return -1;
+    }
+
+    /**
+     * Moves past the line whose terminator has just been found by findLineEnd().
+     */
+    private void consumeLine() {
+        pos = scan = scan + 1;
+    }
+
+    /**
+     * Splits the request line into its method, URI and version.
+     *
+     * @param from the start of the line, relative to start
+     * @param to   the end of the line, relative to start
+     * @return 0 if the request line is well-formed, 400 otherwise
+     */
+    private int parseRequestLine(int from, int to) {
+        int i = from;
+        while (i < to && byteAt(i) >= 'A' && byteAt(i) <= 'Z') i++;
+        if (i == from || i == to || byteAt(i) != ' ') return 400;
+        methodEnd = i;
+
+        uriStart = i + 1;
+        uriEnd = indexOf((byte) ' ', uriStart, to);
+        if (uriEnd <= uriStart) return 400;
+
+        // HTTP-version = "HTTP/" DIGIT "." DIGIT
+        versionStart = uriEnd + 1;
+        versionEnd = to;
+        if (versionEnd - versionStart != 8 || !regionMatches(versionStart, "HTTP/", false)
+                || !isDigit(byteAt(versionStart + 5)) || byteAt(versionStart + 6) != '.' || !isDigit(byteAt(versionStart + 7)))
+            return 400;
+        return 0;
+    }
+
+    /**
+     * Records the name and value of a header line, the value stripped of its surrounding whitespace.
+     *
+     * @param from the start of the line, relative to start
+     * @param to   the end of the line, relative to start
+     * @return 0 if the header line is well-formed, 400 otherwise
+     */
+    private int parseHeaderLine(int from, int to) {
+        int colon = indexOf((byte) ':', from, to);
+        if (colon <= from) return 400;
+        // No whitespace in the name, which also rules out obsolete line folding
+        for (int i = from; i < colon; i++)
+            if (isWhitespace(byteAt(i))) return 400;
+
+        int valueStart = colon + 1;
+        int valueEnd = to;
+        while (valueStart < valueEnd && isWhitespace(byteAt(valueStart))) valueStart++;
+        while (valueEnd > valueStart && isWhitespace(byteAt(valueEnd - 1))) valueEnd--;
+
+        if (headerOffsets.length < 4 * (headerCount + 1)) headerOffsets = Arrays.copyOf(headerOffsets, headerOffsets.length * 2);
+        int offset = 4 * headerCount++;
+        headerOffsets[offset] = from;
+        headerOffsets[offset + 1] = colon;
+        headerOffsets[offset + 2] = valueStart;
+        headerOffsets[offset + 3] = valueEnd;
+        return 0;
+    }
+
+    /**
+     * Decides how the body is framed, from the Transfer-Encoding and Content-Length headers.
+     *
+     * @return 0 if the framing is valid, 400 or 413 otherwise
+     */
+    private int startBody() {
+        bodyStart = pos;
+        bodyLength = framing = 0;
+        if (headerContains("Transfer-Encoding", "chunked")) {
+            chunked = true;
+            state = CHUNK_SIZE;
+            return 0;
+        }
+
+        int index = headerIndex("Content-Length");
+        if (index >= 0) {
+            long length = parseDecimal(headerOffsets[4 * index + 2], headerOffsets[4 * index + 3]);
+            if (length < 0) return 400;
+            if (length > maxBody) return 413;
+            bodyLength = (int) length;
+        }
+        state = BODY;
+        return 0;
+    }
+
+    /**
+     * Parses the hexadecimal size of a chunk, ignoring any chunk extension.
+     *
+     * @return the size of the chunk, or -1 if it is malformed
+     */
+    private long parseChunkSize(int from, int to) {
+        int semicolon = indexOf((byte) ';', from, to);
+        if (semicolon >= 0) to = semicolon;
+        while (to > from && isWhitespace(byteAt(to - 1))) to--;
+        if (from == to) return -1;
+
+        long size = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(byteAt(i), 16);
+            if (digit < 0) return -1;
+            size = size * 16 + digit;
+            if (size > Integer.MAX_VALUE) return Integer.MAX_VALUE; // Beyond any body limit
+        }
+        return size;
+    }
+
+    private long parseDecimal(int from, int to) {
+        if (from == to) return -1;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            if (!isDigit(byteAt(i))) return -1;
+            value = value * 10 + (byteAt(i) - '0');
+            if (value > Integer.MAX_VALUE) return Integer.MAX_VALUE; // Beyond any body limit
+        }
+        return value;
+    }
+
+
+    // ACCESSORS ------------------------------------------------------------
+    /**
+     * Returns the method of the request. The methods of HttpMethod are returned without allocating.
+     *
+     * @return the request method
+     */
+    public String getMethod() {
+        for (HttpMethod httpMethod : HttpMethod.values())
+            if (methodEnd == httpMethod.name().length() && regionMatches(0, httpMethod.name(), false)) return httpMethod.name();
+        return string(0, methodEnd);
+    }
+
+    public String getURI() { return string(uriStart, uriEnd); }
+    public String getVersion() { return string(versionStart, versionEnd); }
+
+    /**
+     * Tells whether the request was sent with the given HTTP version.
+     *
+     * @param version the version to compare with, e.g. "HTTP/1.1"
+     * @return true if the versions are the same, false otherwise
+     */
+    public boolean isVersion(String version) {
+        return versionEnd - versionStart == version.length() && regionMatches(versionStart, version, false);
+    }
+
+    /**
+     * Returns the value of the first header with the given name, compared case-insensitively.
+     *
+     * @param name the name of the header
+     * @return the value of the header, or null if the request does not have it
+     */
+    public String getHeader(String name) {
+        int index = headerIndex(name);
+        return (index < 0) ? null : string(headerOffsets[4 * index + 2], headerOffsets[4 * index + 3]);
+    }
+
+    public boolean hasHeader(String name) { return headerIndex(name) >= 0; }
+
+    /**
+     * Tells whether the given header has the given value, both compared case-insensitively, without allocating.
+     *
+     * @param name  the name of the header
+     * @param value the expected value
+     * @return true if the request has the header with this value, false otherwise
+     */
+    public boolean headerEquals(String name, String value) {
+        int index = headerIndex(name);
+        if (index < 0) return false;
+        int valueStart = headerOffsets[4 * index + 2];
+        return headerOffsets[4 * index + 3] - valueStart == value.length() && regionMatches(valueStart, value, true);
+    }
+
+    /**
+     * Tells whether the value of the given header contains the given token, compared case-insensitively.
+     *
+     * @param name  the name of the header
+     * @param token the token to look for
+     * @return true if the request has the header and its value contains the token, false otherwise
+     */
+    public boolean headerContains(String name, String token) {
+        int index = headerIndex(name);
+        if (index < 0) return false;
+        for (int i = headerOffsets[4 * index + 2]; i + token.length() <= headerOffsets[4 * index + 3]; i++)
+            if (regionMatches(i, token, true)) return true;
+        return false;
+    }
+
+    /**
+     * Returns the body of the request, decoded from its chunks if it was chunked.
+     *
+     * @return the body decoded as UTF-8, empty if the request has none
+     */
+    public String getBody() { return new String(buffer, start + bodyStart, bodyLength, StandardCharsets.UTF_8); }
+
+    public boolean isChunked() { return this.chunked; }
+
+    /**
+     * Tells whether bytes received after the current request are waiting in the buffer.
+     * After next(), these are (part of) the next pipelined request.
+     *
+     * @return true if unparsed bytes are buffered, false otherwise
+     */
+    public boolean hasBufferedBytes() { return limit - start > ((state == DONE) ? end : 0); }
+
+
+    // HELPERS METHODS ------------------------------------------------------------
+    private int headerIndex(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            int nameStart = headerOffsets[4 * i];
+            if (headerOffsets[4 * i + 1] - nameStart == name.length() && regionMatches(nameStart, name, true)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the bytes at the given position with an ASCII String.
+     *
+     * @param from       the position of the bytes, relative to start
+     * @param value      the String to compare with
+     * @param ignoreCase whether letters are compared case-insensitively
+     * @return true if the bytes match the whole String, false otherwise
+     */
+    private boolean regionMatches(int from, String value, boolean ignoreCase) {
+        for (int i = 0; i < value.length(); i++) {
+            int b = byteAt(from + i);
+            int c = value.charAt(i);
+            if (b == c) continue;
+            if (!ignoreCase || (b | 0x20) != (c | 0x20) || (c | 0x20) < 'a' || (c | 0x20) > 'z') return false;
+        }
+        return true;
+    }
+
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buffer[start + i] == value) return i;
+        return -1;
+    }
+
+    private int byteAt(int index) { return buffer[start + index] & 0xFF; }
+    private String string(int from, int to) { return new String(buffer, start + from, to - from, StandardCharsets.ISO_8859_1); }
+    private static boolean isDigit(int b) { return b >= '0' && b <= '9'; }
+    private static boolean isWhitespace(int b) { return b == ' ' || b == '\t'; }
+}
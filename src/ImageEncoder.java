@@ -1,41 +1,99 @@
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Base64;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The ImageEncoder class provides methods to encode an image file to a Base64-encoded string.
+ * Images are read from disk once and kept in a cache, with their Base64 form, until the file
+ * is modified: its last-modified time is checked at most once a second, and a change reloads the image.
  */
 public class ImageEncoder {
+    private static final long CHECK_INTERVAL = 1000; // milliseconds between two checks of the last-modified time of a file
+    private static final Map<String, Image> CACHE = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
 
     /**
      * Encodes an image file to a Base64-encoded string.
+     * The String returned stays the same instance as long as the file is not modified.
      *
      * @param imagePath the path of the image file to be encoded
      * @return the Base64-encoded string representation of the image
      * @throws IOException if an I/O error occurs while reading the image file
      */
     public static String encodeImageToBase64(String imagePath) throws IOException {
-        try {
-            BufferedImage image = ImageIO.read(new File(imagePath));
+        return getImage(imagePath).base64;
+    }
+
+    /**
+     * Returns the bytes of an image file, as stored on disk.
+     *
+     * @param imagePath the path of the image file
+     * @return the bytes of the file, which must not be modified
+     * @throws IOException if an I/O error occurs while reading the image file
+     */
+    public static byte[] getImageBytes(String imagePath) throws IOException {
+        return getImage(imagePath).bytes;
+    }
+
+    // Getters
+    public static long getCacheHits() { return HITS.sum(); }
+    public static long getCacheMisses() { return MISSES.sum(); }
+
+
+    // HELPERS METHODS ------------------------------------------------------------
+    /**
+     * Returns the cached image of a file, reading the file again if it is not cached yet
+     * or if it has been modified since it was read. A modification may go unnoticed for up to a second.
+     *
+     * @param imagePath the path of the image file
+     * @return the cached image
+     * @throws IOException if an I/O error occurs while reading the image file
+     */
+    private static Image getImage(String imagePath) throws IOException {
+        long now = System.currentTimeMillis();
+        Image image = CACHE.get(imagePath);
+        if (image != null && now - image.checkedAt < CHECK_INTERVAL) {
+            HITS.increment();
+            return image;
+        }
 
-            // Create a ByteArrayOutputStream to hold the encoded image bytes
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
+        File file = new File(imagePath);
+        long lastModified = file.lastModified();
+        if (image != null && image.lastModified == lastModified && lastModified != 0) {
+            image.checkedAt = now;
+            HITS.increment();
+            return image;
+        }
+
+        MISSES.increment();
+        // The file is already a PNG: its bytes are encoded as they are, without decoding the image
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        image = new Image(bytes, Base64.getEncoder().encodeToString(bytes), lastModified, now);
+        CACHE.put(imagePath, image);
+        return image;
+    }
 
-            // Write the image to the ByteArrayOutputStream in PNG format (you can change the format if needed)
-            ImageIO.write(image, "png", os);
 
-            // Get the byte array from the ByteArrayOutputStream
-            byte[] imageBytes = os.toByteArray();
+    /**
+     * An image read from disk: its bytes, their Base64 form, the last-modified time of the file when it was read
+     * and the time that last-modified time was last checked.
+     */
+    private static final class Image {
+        private final byte[] bytes;
+        private final String base64;
+        private final long lastModified;
+        private volatile long checkedAt;
 
-            // Use Base64 encoding to convert the byte array to a Base64-encoded string
-            return Base64.getEncoder().encodeToString(imageBytes);
-        } 
-        catch (IOException e) { 
-            e.printStackTrace();
-            return null; 
+        Image(byte[] bytes, String base64, long lastModified, long checkedAt) {
+            this.bytes = bytes;
+            this.base64 = base64;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
         }
     }
 }
@@ -0,0 +1,123 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The JsonWriter class writes the JSON answers of the guess endpoint, {"Status": "...", "Message":"..."},
+ * straight into the body of a response. The fixed parts, and the whole answer to an invalid word, are encoded once;
+ * the message is written character by character from the game state, so that an answer builds no String.
+ * Characters outside ASCII are escaped, so that the length of an answer is known before writing it.
+ */
+public class JsonWriter {
+    public static final byte[] PLAYING = statusPrefix("Playing");
+    public static final byte[] WIN = statusPrefix("Win");
+    public static final byte[] GAMEOVER = statusPrefix("Gameover");
+    public static final byte[] INVALID_WORD = "{\"Status\": \"Invalid\", \"Message\": \"Word does not exist. Try another.\"}"
+                                              .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "\"}".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Returns the length of an answer whose message is a row of the game state, "row:guess:color".
+     *
+     * @param status the status prefix: PLAYING, WIN or GAMEOVER
+     * @param row    the index of the row
+     * @param guess  the guess of the row
+     * @param color  the color pattern of the row
+     * @return the length of the answer, in bytes
+     */
+    public static int gameStateLength(byte[] status, int row, String guess, String color) {
+        return status.length + decimalLength(row) + 1 + escapedLength(guess) + 1 + escapedLength(color) + END.length;
+    }
+
+    /**
+     * Writes an answer whose message is a row of the game state, "row:guess:color".
+     *
+     * @param writer the ResponseWriter receiving the body
+     * @param status the status prefix: PLAYING, WIN or GAMEOVER
+     * @param row    the index of the row
+     * @param guess  the guess of the row
+     * @param color  the color pattern of the row
+     */
+    public static void writeGameState(ResponseWriter writer, byte[] status, int row, String guess, String color) {
+        writer.writeBody(status);
+        writeDecimal(writer, row);
+        writer.writeBody(':');
+        writeEscaped(writer, guess);
+        writer.writeBody(':');
+        writeEscaped(writer, color);
+        writer.writeBody(END);
+    }
+
+    /**
+     * Returns the length of an answer with the given message.
+     *
+     * @param status  the status prefix: PLAYING, WIN or GAMEOVER
+     * @param message the message
+     * @return the length of the answer, in bytes
+     */
+    public static int messageLength(byte[] status, String message) {
+        return status.length + escapedLength(message) + END.length;
+    }
+
+    /**
+     * Writes an answer with the given message.
+     *
+     * @param writer  the ResponseWriter receiving the body
+     * @param status  the status prefix: PLAYING, WIN or GAMEOVER
+     * @param message the message
+     */
+    public static void writeMessage(ResponseWriter writer, byte[] status, String message) {
+        writer.writeBody(status);
+        writeEscaped(writer, message);
+        writer.writeBody(END);
+    }
+
+
+    // HELPERS METHODS ------------------------------------------------------------
+    private static byte[] statusPrefix(String status) {
+        return ("{\"Status\": \"" + status + "\", \"Message\":\"").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the characters of a JSON string: quotes, backslashes, control and non-ASCII characters are escaped.
+     */
+    private static void writeEscaped(ResponseWriter writer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.writeBody('\\');
+                writer.writeBody(c);
+            }
+            else if (c < 0x20 || c >= 0x7f) {
+                writer.writeBody('\\');
+                writer.writeBody('u');
+                for (int shift = 12; shift >= 0; shift -= 4) writer.writeBody(Character.forDigit((c >> shift) & 0xF, 16));
+            }
+            else writer.writeBody(c);
+        }
+    }
+
+    private static int escapedLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') length += 2;
+            else if (c < 0x20 || c >= 0x7f) length += 6;
+            else length += 1;
+        }
+        return length;
+    }
+
+    private static void writeDecimal(ResponseWriter writer, int value) {
+        if (value < 0) {
+            writer.writeBody('-');
+            value = -value;
+        }
+        if (value >= 10) writeDecimal(writer, value / 10);
+        writer.writeBody((char) ('0' + value % 10));
+    }
+
+    private static int decimalLength(int value) {
+        int length = (value < 0) ? 2 : 1;
+        for (value = Math.abs(value); value >= 10; value /= 10) length++;
+        return length;
+    }
+}
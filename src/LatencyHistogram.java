@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records durations in log-linear buckets, in the manner of HdrHistogram:
+ * each power of two is split into SUB_BUCKETS linear buckets, so that a percentile read back
+ * is within 1/SUB_BUCKETS (about 3%) of the recorded value, from a nanosecond to about 18 minutes.
+ * Recording is an atomic increment and a LongAdder addition, without locks or allocation. Reading walks
+ * the buckets without stopping the writers, so that a snapshot may miss the values recorded while it is taken.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1; // Longer durations are clamped
+    private static final int MAX_SHIFT = 63 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    /**
+     * Reads the counts of the buckets.
+     *
+     * @return a snapshot of the histogram
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) total += copy[i] = counts.get(i);
+        return new Snapshot(copy, total, sum.sum());
+    }
+
+
+    // BUCKETS METHODS ------------------------------------------------------------
+    /**
+     * Returns the bucket of a value: values below 2 * SUB_BUCKETS have their own bucket,
+     * larger ones share it with the values of the same power of two and the same SUB_BITS leading bits.
+     */
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest value that falls in a bucket.
+     */
+    private static long highestValue(int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        long mantissa = index - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+
+    /**
+     * The counts of a histogram at some point, from which percentiles are read.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() { return this.count; }
+        public long getSum() { return this.sum; }
+
+        /**
+         * Returns the value below which the given share of the recorded values fall.
+         *
+         * @param percentile the share, between 0 and 100, e.g. 99.9
+         * @return the highest value of the bucket holding the percentile, in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return highestValue(i);
+            }
+            return highestValue(counts.length - 1);
+        }
+    }
+}
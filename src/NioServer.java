@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The NioServer class is the non-blocking engine of the Wordle server.
+ * New connections are spread over a few event loops, each owning a Selector, which read and write
+ * on non-blocking channels. Once a full request has been buffered, the game logic runs as a short
+ * task on a worker pool, so that slow or idle clients never hold a thread.
+ */
+public class NioServer {
+    private static final int SWEEP_INTERVAL = 1000; // milliseconds
+
+    private final int serverID;
+    private final int port;
+    private final ExecutorService workers;
+    private final EventLoop[] eventLoops;
+    private final int acceptors;
+
+    public NioServer(int serverID, int port, int workerThreads, int eventLoopCount, int acceptors) throws IOException {
+        this.serverID = serverID;
+        this.port = port;
+        this.acceptors = acceptors;
+        this.workers = WordleServer.newBoundedExecutor(workerThreads);
+        this.eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) this.eventLoops[i] = new EventLoop();
+    }
+
+    /**
+     * Starts the event loops and the acceptors. Each acceptor owns a server channel bound to
+     * the port, shared through SO_REUSEPORT when there are several, and hands the connections
+     * it accepts to the event loops in a round-robin fashion.
+     *
+     * @throws IOException if a server channel cannot be bound to the port
+     */
+    public void run() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "nio-loop-" + i);
+            thread.start();
+        }
+
+        // Bind every channel first, so that a busy port is reported before serving anything
+        ServerSocketChannel[] serverChannels = new ServerSocketChannel[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            serverChannels[i] = ServerSocketChannel.open();
+            if (acceptors > 1) serverChannels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            serverChannels[i].bind(new InetSocketAddress(port));
+        }
+        System.out.println("-- Wordle HTTP Server (NIO, " + eventLoops.length + " event loops, " + acceptors + " acceptors) is listening on port " + port + ".");
+
+        for (int i = 1; i < acceptors; i++) {
+            ServerSocketChannel serverChannel = serverChannels[i];
+            int firstLoop = i;
+            Thread acceptor = new Thread(() -> acceptLoop(serverChannel, firstLoop), "nio-acceptor-" + i);
+            acceptor.start();
+        }
+        acceptLoop(serverChannels[0], 0);
+    }
+
+    /**
+     * Accepts connections forever on one server channel.
+     *
+     * @param serverChannel the bound server channel
+     * @param firstLoop     the event loop receiving the first connection, so that acceptors do not all start on the same one
+     */
+    private void acceptLoop(ServerSocketChannel serverChannel, int firstLoop) {
+        int next = firstLoop % eventLoops.length;
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException ioe) {
+                System.err.println("-- Error accepting client connection.");
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try { channel.close(); }
+        catch (IOException e) { /* Nothing left to do with this connection */ }
+    }
+
+
+    /**
+     * The state of a single client connection, attached to its SelectionKey.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private ByteBuffer[] writeBuffers;
+        private int requestsServed = 0;
+        private boolean keepAlive = true;
+        private long lastActivity = System.currentTimeMillis();
+        private long requestStart = 0; // 0 while no part of a request is buffered
+        private long closeAt = 0; // Once half-closed, the time at which the connection is closed for good
+        private long writeNanos = 0; // Time spent writing the pending responses so far, recorded once they are written
+        private final int sendBufferSize;
+        private final String remoteAddress;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
+            int size = 0;
+            try { size = channel.getOption(StandardSocketOptions.SO_SNDBUF); }
+            catch (IOException e) { /* The handler falls back to its default chunk size */ }
+            this.sendBufferSize = size;
+        }
+    }
+
+    /**
+     * An event loop owning one Selector. All the reads and writes of the connections registered
+     * to it happen on its thread; other threads talk to it by submitting tasks.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer discarded = ByteBuffer.allocate(4096); // Receives the bytes sent on half-closed connections
+        private long lastSweep = System.currentTimeMillis();
+
+        EventLoop() throws IOException { this.selector = Selector.open(); }
+
+        /**
+         * Runs the given task on the event loop thread.
+         *
+         * @param task the task to run
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a freshly accepted channel with this event loop.
+         *
+         * @param channel the non-blocking channel of the client
+         */
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try { channel.register(selector, SelectionKey.OP_READ, new Connection(channel)); }
+                catch (IOException e) { closeQuietly(channel); }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(SWEEP_INTERVAL);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+
+                        try {
+                            if (key.isReadable()) onReadable(key);
+                            else if (key.isWritable()) onWritable(key);
+                        }
+                        catch (IOException e) { close(key); }
+                    }
+
+                    closeIdleConnections();
+                }
+                catch (IOException e) { e.printStackTrace(); }
+            }
+        }
+
+        /**
+         * Closes the half-closed connections whose linger is over and the connections that have been waiting
+         * for a request for too long, and answers 408 to those whose request is arriving too slowly: more than
+         * the read timeout without a byte, or more than the request timeout in total. Connections whose responses
+         * have not moved for the read timeout are closed too, as the client stopped reading them. Connections whose
+         * request is being processed are left alone.
+         */
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < SWEEP_INTERVAL) return;
+            lastSweep = now;
+
+            for (SelectionKey key : selector.keys()) {
+                if (!key.isValid()) continue;
+                Connection connection = (Connection) key.attachment();
+                if (connection.closeAt != 0) {
+                    if (now >= connection.closeAt) close(key);
+                    continue;
+                }
+                if (key.interestOps() == SelectionKey.OP_WRITE) {
+                    if (now - connection.lastActivity > WordleServer.getReadTimeout()) close(key);
+                    continue;
+                }
+                if (key.interestOps() != SelectionKey.OP_READ) continue;
+
+                if (connection.requestStart == 0) {
+                    int idleTimeout = (connection.requestsServed > 0) ? WordleServer.getKeepAliveTimeout() : WordleServer.getReadTimeout();
+                    if (now - connection.lastActivity > idleTimeout) close(key);
+                }
+                else if (now - connection.lastActivity > WordleServer.getReadTimeout()
+                        || now - connection.requestStart > WordleServer.getRequestTimeout()) {
+                    try { reject(key, 408); }
+                    catch (IOException e) { close(key); }
+                }
+            }
+        }
+
+        /**
+         * Answers a request that breaks the limits of the server with a bodiless error response, then closes the connection.
+         *
+         * @param key        the key of the connection
+         * @param statusCode the status code of the response
+         */
+        private void reject(SelectionKey key, int statusCode) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            byte[] response = HttpHandler.closingResponse(statusCode);
+            AccessLog.log(connection.remoteAddress, null, statusCode, response.length, System.nanoTime(), "");
+            ServerMetrics.requestEnded(ServerMetrics.OTHER_ROUTE, statusCode, response.length, 0, false);
+            connection.writeBuffers = new ByteBuffer[] { ByteBuffer.wrap(response) };
+            connection.keepAlive = false;
+            onWritable(key);
+        }
+
+        /**
+         * Reads the available bytes and, once a full request has been received,
+         * stops reading and hands the request over to a worker.
+         *
+         * @param key the key of the readable connection
+         */
+        private void onReadable(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            if (connection.closeAt != 0) {
+                // The response has been written: what the client still sends is dropped
+                discarded.clear();
+                if (connection.channel.read(discarded) == -1) close(key);
+                return;
+            }
+            if (connection.parser.read(connection.channel) == -1) {
+                close(key);
+                return;
+            }
+            connection.lastActivity = System.currentTimeMillis();
+            if (connection.requestStart == 0) connection.requestStart = connection.lastActivity;
+
+            dispatch(key);
+        }
+
+        /**
+         * Hands the requests held by the parser over to a worker once the first one is complete,
+         * so that pipelined requests are answered in order with a single write. The worker answers them
+         * from the parser of the connection, without parsing them again, and leaves it any bytes following them.
+         * A request breaking the limits of the server is rejected by the worker once the requests before it are answered.
+         *
+         * @param key the key of the connection
+         * @return true if requests were dispatched, false if more bytes are needed
+         * @throws IOException if the response cannot be written when the workers are overloaded
+         */
+        private boolean dispatch(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            if (connection.parser.parse() == HttpRequestParser.NEED_MORE) return false;
+
+            // Stop reading until the responses have been written: the parser belongs to the worker until then
+            key.interestOps(0);
+            int requestsLeft = WordleServer.getMaxKeepAliveRequests() - connection.requestsServed;
+            try { workers.execute(() -> process(key, requestsLeft)); }
+            catch (RejectedExecutionException e) {
+                // The worker queue is full: shed the connection with the precomputed 503
+                ServerMetrics.connectionShed();
+                AccessLog.log(connection.remoteAddress, null, 503, HttpHandler.SERVICE_UNAVAILABLE.length, System.nanoTime(), "");
+                ServerMetrics.requestEnded(ServerMetrics.OTHER_ROUTE, 503, HttpHandler.SERVICE_UNAVAILABLE.length, 0, false);
+                connection.writeBuffers = new ByteBuffer[] { ByteBuffer.wrap(HttpHandler.SERVICE_UNAVAILABLE) };
+                connection.keepAlive = false;
+                onWritable(key);
+            }
+            return true;
+        }
+
+        /**
+         * Runs the game logic for the requests held by the parser of the connection on a worker thread,
+         * then passes the responses back to the event loop for writing.
+         *
+         * @param key          the key of the connection
+         * @param requestsLeft the number of requests the connection may still serve
+         */
+        private void process(SelectionKey key, int requestsLeft) {
+            Connection client = (Connection) key.attachment();
+            HttpHandler httpHandler = new HttpHandler(serverID, client.parser, requestsLeft,
+                                                      client.sendBufferSize, client.remoteAddress);
+            httpHandler.run();
+            ByteBuffer[] responses = httpHandler.takeResponses();
+
+            execute(() -> {
+                if (!key.isValid()) {
+                    ResponseWriter.release(responses);
+                    return;
+                }
+                Connection connection = (Connection) key.attachment();
+                connection.writeBuffers = responses;
+                connection.keepAlive = httpHandler.isKeepAlive();
+                connection.requestsServed += httpHandler.getRequestsServed();
+                // Part of the next request may have arrived with the answered ones
+                connection.requestStart = connection.parser.hasBufferedBytes() ? System.currentTimeMillis() : 0;
+                try { onWritable(key); }
+                catch (IOException e) { close(key); }
+            });
+        }
+
+        /**
+         * Writes as much of the pending responses as the socket accepts, with a single gathering write,
+         * and waits for the socket to be writable again if needed. Written buffers go back to the pool, and the
+         * time spent in all the writes is recorded once they are done.
+         *
+         * @param key the key of the writable connection
+         */
+        private void onWritable(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer[] buffers = connection.writeBuffers;
+            long start = System.nanoTime();
+            long written = connection.channel.write(buffers);
+            connection.writeNanos += System.nanoTime() - start;
+            // The write timeout runs from the handover of the responses, then from the last write that made progress
+            if (written > 0 || key.interestOps() != SelectionKey.OP_WRITE) connection.lastActivity = System.currentTimeMillis();
+
+            if (buffers.length > 0 && buffers[buffers.length - 1].hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            ResponseWriter.release(buffers);
+            connection.writeBuffers = null;
+            // One sample per batch of responses, like a blocking write, however many writes it took
+            ServerMetrics.Phase.WRITE.record(connection.writeNanos);
+            connection.writeNanos = 0;
+
+            if (!connection.keepAlive) closeLingering(key);
+            else {
+                // Serve the next request, which may already be buffered
+                connection.lastActivity = System.currentTimeMillis();
+                if (!dispatch(key)) key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Half-closes a connection whose last response has been written, so that a FIN follows the response.
+         * Closing it with bytes left unread (a rejected body or headers, or pipelined requests) would reset it
+         * instead, and the reset may discard the response before the client reads it. The connection is closed for good once the client closes its side,
+         * or by closeIdleConnections() once the linger is over; until then, what the client sends is dropped.
+         *
+         * @param key the key of the connection
+         */
+        private void closeLingering(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            connection.channel.shutdownOutput();
+            connection.closeAt = System.currentTimeMillis() + WordleServer.getLingerTimeout();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (connection.writeBuffers != null) {
+                ResponseWriter.release(connection.writeBuffers);
+                connection.writeBuffers = null;
+            }
+            key.cancel();
+            closeQuietly((SocketChannel) key.channel());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * The PageCache class holds the compiled template of the game page and the parts of the page that do not
+ * depend on the game: the prefix (head, styles and logo) and the suffix (keyboard, fallback form, modal and scripts).
+ * They are encoded to UTF-8 and compressed once, at the best level, so that a page response
+ * only has to render and compress its board. The template is compiled again when the logo file changes.
+ * When the server serves static assets, the page links the styles, the scripts and the logo instead of inlining them.
+ * The parts are also kept in shared direct buffers, which responses write without copying them.
+ */
+public class PageCache {
+    private static final String LOGO_PATH = "logo.png";
+    private static volatile PageCache instance = null;
+    private static int builds = 0;
+
+    private final String logo;
+    private final int version;
+
+    private final PageTemplate template;
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final Gzip.Segment gzipPrefix;
+    private final Gzip.Segment gzipSuffix;
+    private final ByteBuffer prefixBuffer;
+    private final ByteBuffer suffixBuffer;
+    private final ByteBuffer gzipPrefixBuffer;
+    private final ByteBuffer gzipSuffixBuffer;
+
+    private PageCache(HTML htmlGenerator, String logo) {
+        this.logo = logo;
+        this.version = ++builds; // Guarded by the lock of get()
+        if (WordleServer.isStaticAssets()) {
+            StaticAssets assets = StaticAssets.get();
+            this.template = PageTemplate.compile(htmlGenerator.generatePageTemplate(
+                    assets.getStyles().getUrl(), assets.getLogo().getUrl(), assets.getScript().getUrl()));
+        }
+        else this.template = PageTemplate.compile(htmlGenerator.generatePageTemplate(null, null, null));
+        this.prefix = template.getPrefix();
+        this.suffix = template.getSuffix();
+        // The suffix ends the page, so it carries the final deflate block
+        this.gzipPrefix = Gzip.deflate(prefix, 0, prefix.length, Deflater.BEST_COMPRESSION, false);
+        this.gzipSuffix = Gzip.deflate(suffix, 0, suffix.length, Deflater.BEST_COMPRESSION, true);
+        this.prefixBuffer = ResponseWriter.share(prefix);
+        this.suffixBuffer = ResponseWriter.share(suffix);
+        this.gzipPrefixBuffer = ResponseWriter.share(gzipPrefix.getData());
+        this.gzipSuffixBuffer = ResponseWriter.share(gzipSuffix.getData());
+    }
+
+    /**
+     * Returns the cached page parts, building them on first use and again whenever the logo has changed.
+     *
+     * @return the page cache
+     */
+    public static PageCache get() {
+        String logo = currentLogo();
+        PageCache cache = instance;
+        // The ImageEncoder returns the same String until the logo file is modified
+        if (cache == null || cache.logo != logo) {
+            synchronized (PageCache.class) {
+                if (instance == null || instance.logo != logo) instance = new PageCache(new HTML(), logo);
+                cache = instance;
+            }
+        }
+        return cache;
+    }
+
+    private static String currentLogo() {
+        try { return ImageEncoder.encodeImageToBase64(LOGO_PATH); }
+        catch (IOException e) { return null; }
+    }
+
+    // Getters
+    public int getVersion() { return this.version; }
+    public PageTemplate getTemplate() { return this.template; }
+    public byte[] getPrefix() { return this.prefix; }
+    public byte[] getSuffix() { return this.suffix; }
+    public Gzip.Segment getGzipPrefix() { return this.gzipPrefix; }
+    public Gzip.Segment getGzipSuffix() { return this.gzipSuffix; }
+    public ByteBuffer getPrefixBuffer() { return this.prefixBuffer; }
+    public ByteBuffer getSuffixBuffer() { return this.suffixBuffer; }
+    public ByteBuffer getGzipPrefixBuffer() { return this.gzipPrefixBuffer; }
+    public ByteBuffer getGzipSuffixBuffer() { return this.gzipSuffixBuffer; }
+}
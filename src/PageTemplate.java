@@ -0,0 +1,251 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The PageTemplate class renders the game page from a template compiled once: immutable UTF-8 segments
+ * separated by typed slots, for the error message, the board and the script state.
+ * The page source comes from HTML.generatePageTemplate(), with a marker in place of each slot.
+ * Rendering writes the segments and the markup of the slots, itself made of UTF-8 constants,
+ * straight into a byte buffer: no String is built on the way.
+ *
+ * The first and last segments do not depend on the game. They are given apart by getPrefix() and getSuffix(),
+ * so that they can be cached and compressed once, and renderBody() renders everything between them.
+ */
+public class PageTemplate {
+    private static final int ROWS = 6;
+
+    // Slots
+    public static final int ERROR = 0;
+    public static final int BOARD = 1;
+    public static final int STATE = 2;
+    private static final String[] MARKERS = { "<!--slot:error-->", "<!--slot:board-->", "<!--slot:state-->" };
+
+    // Markup of the slots: the board is only ever rendered from these
+    private static final byte[] ERROR_OPEN = utf8("<div class=\"error-message\">");
+    private static final byte[] DIV_CLOSE = utf8("</div>");
+    private static final byte[] ROW_OPEN = utf8("<div class=\"word-row\" id=\"row-");
+    private static final byte[] CURRENT_ROW_OPEN = utf8("<div class=\"word-row highlight-row\" id=\"row-");
+    private static final byte[] CELL_OPEN = utf8("<div class=\"word-cell\" id=\"cell-");
+    private static final byte[] GREEN_CELL_OPEN = utf8("<div class=\"word-cell green\" id=\"cell-");
+    private static final byte[] YELLOW_CELL_OPEN = utf8("<div class=\"word-cell yellow\" id=\"cell-");
+    private static final byte[] DARKENED_CELL_OPEN = utf8("<div class=\"word-cell darkened\" id=\"cell-");
+    private static final byte[] TAG_END = utf8("\">");
+    private static final byte[] MODAL_OPEN = utf8("<form action='/restart' method='post'><div class=\"modal\" style=\"display: block;\"><p>");
+    private static final byte[] MODAL_WIN = utf8("Congratulations, You Won!");
+    private static final byte[] MODAL_LOSS = utf8("Game Over. The correct word was: ");
+    private static final byte[] MODAL_CLOSE = utf8("</p><input type='submit' value='Restart Game'></div></form>");
+    private static final byte[] STATE_OPEN = utf8("<script>let currentRow = ");
+    private static final byte[] STATE_CLOSE = utf8("; let currentGuess = ''; let currentCell = 0;</script>");
+
+    private final byte[][] segments; // segments[i] comes before slots[i], the last one after the last slot
+    private final int[] slots;
+
+    private PageTemplate(byte[][] segments, int[] slots) {
+        this.segments = segments;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles a page source into a template, splitting it at the slot markers.
+     *
+     * @param source the page, with a marker in place of each slot
+     * @return the compiled template
+     */
+    public static PageTemplate compile(String source) {
+        List<byte[]> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+
+        int from = 0;
+        while (true) {
+            // Find the next marker
+            int slot = -1;
+            int at = source.length();
+            for (int i = 0; i < MARKERS.length; i++) {
+                int index = source.indexOf(MARKERS[i], from);
+                if (index >= 0 && index < at) {
+                    at = index;
+                    slot = i;
+                }
+            }
+
+            segments.add(utf8(source.substring(from, at)));
+            if (slot < 0) break;
+            slots.add(slot);
+            from = at + MARKERS[slot].length();
+        }
+
+        if (slots.isEmpty()) throw new IllegalArgumentException("The page source has no slot");
+        return new PageTemplate(segments.toArray(new byte[0][]), slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Returns the marker standing for a slot in a page source.
+     *
+     * @param slot the slot: ERROR, BOARD or STATE
+     * @return the marker
+     */
+    public static String marker(int slot) { return MARKERS[slot]; }
+
+    // Getters
+    public byte[] getPrefix() { return this.segments[0]; }
+    public byte[] getSuffix() { return this.segments[this.segments.length - 1]; }
+
+    /**
+     * Renders the part of the page between the prefix and the suffix: the slots and the segments between them.
+     *
+     * @param session      the session whose game is shown
+     * @param errorMessage an optional error message to display on the page
+     * @param out          the buffer receiving the UTF-8 bytes
+     */
+    public void renderBody(SessionData session, String errorMessage, Buffer out) {
+        for (int i = 0; i < slots.length; i++) {
+            if (i > 0) out.write(segments[i]);
+            renderSlot(slots[i], session, errorMessage, out);
+        }
+    }
+
+
+    // SLOTS METHODS ------------------------------------------------------------
+    private static void renderSlot(int slot, SessionData session, String errorMessage, Buffer out) {
+        switch (slot) {
+            case ERROR:
+                if (errorMessage != null && !errorMessage.isEmpty()) {
+                    out.write(ERROR_OPEN);
+                    out.writeText(errorMessage);
+                    out.write(DIV_CLOSE);
+                }
+                break;
+            case BOARD:
+                renderBoard(session, out);
+                break;
+            case STATE:
+                out.write(STATE_OPEN);
+                out.writeDecimal(isNewGame(session) ? 0 : lastFilledRow(session) + 1);
+                out.write(STATE_CLOSE);
+                break;
+            default:
+                throw new IllegalStateException("Unknown slot " + slot);
+        }
+    }
+
+    /**
+     * Renders the rows of the board. A new game has no highlighted row; a game in progress highlights
+     * the row after the last guess, and an ended game shows the modal to restart.
+     */
+    private static void renderBoard(SessionData session, Buffer out) {
+        boolean isNewGame = isNewGame(session);
+        int lastFilledRow = lastFilledRow(session);
+        boolean playerWon = false;
+
+        for (int row = 0; row < ROWS; row++) {
+            String guess = session.getGuess(row);
+            String color = session.getColorPattern(row);
+
+            out.write((!isNewGame && row == lastFilledRow + 1) ? CURRENT_ROW_OPEN : ROW_OPEN);
+            out.writeDecimal(row);
+            out.write(TAG_END);
+            for (int column = 0; column < 5; column++) {
+                out.write(cellOpen((color.length() > column) ? color.charAt(column) : ' '));
+                out.writeDecimal(row);
+                out.write('-');
+                out.writeDecimal(column);
+                out.write(TAG_END);
+                if (guess.length() > column) out.write(Character.toUpperCase(guess.charAt(column)));
+                out.write(DIV_CLOSE);
+            }
+            out.write(DIV_CLOSE);
+
+            if (color.equals("GGGGG")) playerWon = true;
+        }
+
+        if (playerWon || lastFilledRow == ROWS - 1) {
+            out.write(MODAL_OPEN);
+            if (playerWon) out.write(MODAL_WIN);
+            else {
+                out.write(MODAL_LOSS);
+                String secretWord = session.getSecretWord();
+                for (int i = 0; i < secretWord.length(); i++) out.write(Character.toUpperCase(secretWord.charAt(i)));
+            }
+            out.write(MODAL_CLOSE);
+        }
+    }
+
+    private static boolean isNewGame(SessionData session) {
+        for (int row = 0; row < ROWS; row++)
+            if (!session.getGuess(row).isEmpty() || !session.getColorPattern(row).isEmpty()) return false;
+        return true;
+    }
+
+    private static int lastFilledRow(SessionData session) {
+        int lastFilledRow = -1;
+        for (int row = 0; row < ROWS; row++)
+            if (!session.getGuess(row).isEmpty() && !session.getColorPattern(row).isEmpty()) lastFilledRow = row;
+        return lastFilledRow;
+    }
+
+    private static byte[] cellOpen(char colorCode) {
+        switch (colorCode) {
+            case 'G': return GREEN_CELL_OPEN;
+            case 'Y': return YELLOW_CELL_OPEN;
+            case 'B': return DARKENED_CELL_OPEN;
+            default: return CELL_OPEN;
+        }
+    }
+
+    private static byte[] utf8(String value) { return value.getBytes(StandardCharsets.UTF_8); }
+
+
+    /**
+     * A growable byte buffer receiving a rendered page, reused from one render to the next.
+     */
+    public static final class Buffer {
+        private byte[] bytes = new byte[4096];
+        private int size = 0;
+
+        public void reset() { this.size = 0; }
+        public byte[] getBytes() { return this.bytes; }
+        public int getSize() { return this.size; }
+
+        public void write(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        /**
+         * Writes an ASCII character.
+         */
+        public void write(char c) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) c;
+        }
+
+        public void writeDecimal(int value) {
+            if (value < 0) {
+                write('-');
+                value = -value;
+            }
+            if (value >= 10) writeDecimal(value / 10);
+            write((char) ('0' + value % 10));
+        }
+
+        /**
+         * Writes a String encoded as UTF-8, one byte per character as long as it is ASCII.
+         */
+        public void writeText(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) {
+                    write(value.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                write(value.charAt(i));
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
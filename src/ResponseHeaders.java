@@ -0,0 +1,109 @@
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The ResponseHeaders class keeps the header lines that do not change from one response to the next,
+ * serialized once as bytes: for each status and content type, the status line with the Server,
+ * Content-Type, Content-Encoding and Vary headers, and the connection headers.
+ * It also keeps the Date header, in the RFC 1123 format (IMF-fixdate), refreshed every second
+ * by a background ticker and shared by all the workers.
+ */
+public class ResponseHeaders {
+    private static final int MAX_STATUS = 600;
+    private static final String CRLF = "\r\n";
+    private static final DateTimeFormatter RFC_1123 = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private static final AtomicReferenceArray<byte[]> STATUS_LINES = new AtomicReferenceArray<>(MAX_STATUS);
+    private static final Map<String, AtomicReferenceArray<byte[]>> PREFIXES = new ConcurrentHashMap<>(); // By content type
+    private static final byte[] KEEP_ALIVE = ("Connection: keep-alive" + CRLF +
+                                              "Keep-Alive: timeout=" + WordleServer.getKeepAliveTimeout() / 1000 + CRLF)
+                                              .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = ("Connection: close" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    private static volatile byte[] date = formatDate();
+    static {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "date-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Tick right after each second starts, so that the date is never more than a few milliseconds late
+        long delay = 1000 - System.currentTimeMillis() % 1000;
+        ticker.scheduleAtFixedRate(() -> date = formatDate(), delay, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the status line of a response, followed by the Server header.
+     *
+     * @param statusCode the status code of the response
+     * @return the header lines, ended by CRLF
+     */
+    public static byte[] status(int statusCode) {
+        byte[] lines = STATUS_LINES.get(statusCode);
+        if (lines == null) {
+            lines = ("HTTP/1.1 " + statusCode + " " + HttpHandler.getStatusMessage(statusCode) + CRLF +
+                     "Server: " + WordleServer.getServerID() + CRLF).getBytes(StandardCharsets.US_ASCII);
+            STATUS_LINES.set(statusCode, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the status line of a response followed by the Server, Content-Type, Content-Encoding
+     * (if the body is compressed) and Vary (if the content type is compressible) headers.
+     *
+     * @param statusCode  the status code of the response
+     * @param contentType the content type of the response
+     * @param gzipped     whether the body is compressed with gzip
+     * @return the header lines, ended by CRLF
+     */
+    public static byte[] prefix(int statusCode, String contentType, boolean gzipped) {
+        AtomicReferenceArray<byte[]> prefixes = PREFIXES.computeIfAbsent(contentType, type -> new AtomicReferenceArray<>(MAX_STATUS * 2));
+        int index = statusCode * 2 + (gzipped ? 1 : 0);
+        byte[] lines = prefixes.get(index);
+        if (lines == null) {
+            lines = (new String(status(statusCode), StandardCharsets.US_ASCII) +
+                     "Content-Type: " + contentType + CRLF +
+                     (gzipped ? "Content-Encoding: gzip" + CRLF : "") +
+                     (isCompressible(contentType) ? "Vary: Accept-Encoding" + CRLF : "")).getBytes(StandardCharsets.US_ASCII);
+            prefixes.set(index, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the headers telling the client whether the connection stays open after the response.
+     *
+     * @param close whether the server closes the connection
+     * @return the header lines, ended by CRLF
+     */
+    public static byte[] connection(boolean close) { return close ? CLOSE : KEEP_ALIVE; }
+
+    /**
+     * Returns the Date header of the current second.
+     *
+     * @return the header line, ended by CRLF
+     */
+    public static byte[] date() { return date; }
+
+    /**
+     * Tells whether responses of the given type are worth compressing: the HTML page and the JSON answers.
+     *
+     * @param contentType the content type of the response
+     * @return true if the response may be compressed, false otherwise
+     */
+    public static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/html") || contentType.startsWith("application/json");
+    }
+
+    private static byte[] formatDate() {
+        return ("Date: " + RFC_1123.format(ZonedDateTime.now(ZoneOffset.UTC)) + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+}
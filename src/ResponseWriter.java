@@ -0,0 +1,439 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The ResponseWriter class serializes HTTP responses straight into direct ByteBuffers taken from a shared pool.
+ * Status lines and headers are written as ASCII with CRLF terminators, and bodies are encoded to UTF-8
+ * once, directly into the buffers. Parts that many responses share, such as the cached parts of the page,
+ * are not copied: read-only slices of their buffer are laid between the pooled buffers.
+ * The responses gathered so far go out with a single gathering write, after which the buffers return to the pool.
+ */
+public class ResponseWriter {
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private ByteBuffer[] buffers = new ByteBuffer[4];
+    private int count = 0;
+    private ByteBuffer current = null;
+    private long bytesTaken = 0; // Bytes of the buffers already handed over or discarded
+
+    // Chunked encoding of the body being written, see beginChunked()
+    private int chunkSize = 0;
+    private int chunkLeft = 0;
+    private int bodyLeft = 0;
+    private boolean firstChunk = true;
+
+
+    // POOL METHODS ------------------------------------------------------------
+    /**
+     * Takes an empty buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return a cleared direct buffer of BUFFER_SIZE bytes
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        return (buffer != null) ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Gives buffers back to the pool. Buffers that do not come from the pool are ignored,
+     * and so are pooled buffers once the pool is full.
+     *
+     * @param buffers the buffers to give back
+     */
+    public static void release(ByteBuffer... buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer == null || !buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != BUFFER_SIZE) continue;
+            buffer.clear();
+            POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * Copies bytes once into a direct buffer that responses can then share without copying them again.
+     *
+     * @param bytes the bytes to share
+     * @return a read-only direct buffer holding the bytes, ready to be written
+     */
+    public static ByteBuffer share(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+
+    // WRITING METHODS ------------------------------------------------------------
+    /**
+     * Writes a header line.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header, made of ASCII characters
+     */
+    public void writeHeader(String name, String value) {
+        writeAscii(name);
+        put(':');
+        put(' ');
+        writeAscii(value);
+        writeCRLF();
+    }
+
+    /**
+     * Writes a header line with a numeric value, without converting it to a String.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header
+     */
+    public void writeHeader(String name, long value) {
+        writeAscii(name);
+        put(':');
+        put(' ');
+        writeDecimal(value);
+        writeCRLF();
+    }
+
+    public void writeCRLF() {
+        put('\r');
+        put('\n');
+    }
+
+    /**
+     * Writes a String made of ASCII characters, one byte per character.
+     *
+     * @param value the String to write
+     */
+    public void writeAscii(String value) {
+        for (int i = 0; i < value.length(); i++) put(value.charAt(i));
+    }
+
+    public void writeDecimal(long value) {
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) put((int) ('0' + (value / divisor) % 10));
+    }
+
+    public void writeHex(int value) {
+        int shift = 28;
+        while (shift > 0 && (value >>> shift) == 0) shift -= 4;
+        for (; shift >= 0; shift -= 4) put(Character.forDigit((value >>> shift) & 0xF, 16));
+    }
+
+    /**
+     * Writes raw bytes.
+     *
+     * @param bytes  the array holding the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (current == null || !current.hasRemaining()) nextBuffer();
+            int n = Math.min(length, current.remaining());
+            current.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void write(byte[] bytes) { write(bytes, 0, bytes.length); }
+
+    /**
+     * Writes the bytes of a shared buffer, as made by share(), without copying them.
+     *
+     * @param shared the shared buffer, whose position and limit are left untouched
+     */
+    public void write(ByteBuffer shared) {
+        if (shared.hasRemaining()) addBuffer(shared.asReadOnlyBuffer());
+    }
+
+    /**
+     * Writes raw bytes in the chunked transfer coding, ended by the last (empty) chunk.
+     *
+     * @param bytes     the array holding the bytes
+     * @param offset    the index of the first byte
+     * @param length    the number of bytes
+     * @param chunkSize the maximum size of a chunk, in bytes
+     */
+    public void writeChunked(byte[] bytes, int offset, int length, int chunkSize) {
+        beginChunked(length, chunkSize);
+        appendChunked(bytes, offset, length);
+        endChunked();
+    }
+
+    /**
+     * Starts a body in the chunked transfer coding. The body is then written, possibly in several parts,
+     * with appendChunked(), and ended with endChunked(). When the length of the body is known, chunks are cut
+     * every chunkSize bytes whatever the boundaries of the parts. Otherwise the body is streamed: a chunk never
+     * spans two parts, so that each part can be sent before the next one is produced.
+     *
+     * @param byteLength the length of the whole body, in bytes, or -1 if it is not known yet
+     * @param chunkSize  the maximum size of a chunk, in bytes
+     */
+    public void beginChunked(int byteLength, int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.chunkLeft = 0;
+        this.bodyLeft = byteLength;
+        this.firstChunk = true;
+    }
+
+    /**
+     * Writes a part of a body started with beginChunked().
+     *
+     * @param bytes  the array holding the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     */
+    public void appendChunked(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (chunkLeft == 0) startChunk(length);
+            int n = Math.min(length, chunkLeft);
+            write(bytes, offset, n);
+            offset += n;
+            length -= n;
+            chunkLeft -= n;
+            bodyLeft -= n;
+        }
+    }
+
+    /**
+     * Writes the bytes of a shared buffer, as made by share(), as a part of a body started with beginChunked().
+     * The payload of the chunks is not copied: only their framing is written to the pooled buffers,
+     * and each chunk goes out with its framing in the same gathering write.
+     *
+     * @param shared the shared buffer, whose position and limit are left untouched
+     */
+    public void appendChunked(ByteBuffer shared) {
+        int position = shared.position();
+        int length = shared.remaining();
+        while (length > 0) {
+            if (chunkLeft == 0) startChunk(length);
+            int n = Math.min(length, chunkLeft);
+            addBuffer(shared.slice(position, n).asReadOnlyBuffer());
+            position += n;
+            length -= n;
+            chunkLeft -= n;
+            bodyLeft -= n;
+        }
+    }
+
+    /**
+     * Ends a body started with beginChunked() with the last (empty) chunk.
+     */
+    public void endChunked() {
+        this.chunkSize = 0;
+        if (!firstChunk) writeCRLF();
+        put('0');
+        writeCRLF();
+        writeCRLF();
+    }
+
+    /**
+     * Writes a part of a body: in the chunked transfer coding if the body was started with beginChunked(), as is otherwise.
+     *
+     * @param bytes the bytes of the part
+     */
+    public void writeBody(byte[] bytes) {
+        if (chunkSize > 0) appendChunked(bytes, 0, bytes.length);
+        else write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes an ASCII character of a body, in the chunked transfer coding if the body was started with beginChunked().
+     *
+     * @param c the character
+     */
+    public void writeBody(char c) { putBody(c); }
+
+    /**
+     * Writes a String encoded as UTF-8. Its length in bytes is given by utf8Length().
+     *
+     * @param value the String to write
+     */
+    public void writeUtf8(String value) {
+        this.chunkSize = 0;
+        encodeUtf8(value);
+    }
+
+    /**
+     * Writes a String encoded as UTF-8 in the chunked transfer coding, ended by the last (empty) chunk.
+     * The String is encoded once: the chunk framing is inserted while encoding, every chunkSize bytes,
+     * so a chunk boundary may fall inside a multibyte character.
+     *
+     * @param value      the String to write
+     * @param byteLength the length of the String encoded as UTF-8, as given by utf8Length()
+     * @param chunkSize  the maximum size of a chunk, in bytes
+     */
+    public void writeChunkedUtf8(String value, int byteLength, int chunkSize) {
+        beginChunked(byteLength, chunkSize);
+        encodeUtf8(value);
+        endChunked();
+    }
+
+    /**
+     * Returns the length of a String encoded as UTF-8, lone surrogates counting as the '?' replacing them.
+     *
+     * @param value the String to measure
+     * @return the number of bytes of its UTF-8 encoding
+     */
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) length += 1;
+            else length += 3;
+        }
+        return length;
+    }
+
+    private void encodeUtf8(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) putBody(c);
+            else if (c < 0x800) {
+                putBody(0xC0 | (c >> 6));
+                putBody(0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                putBody(0xF0 | (codePoint >> 18));
+                putBody(0x80 | ((codePoint >> 12) & 0x3F));
+                putBody(0x80 | ((codePoint >> 6) & 0x3F));
+                putBody(0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) putBody('?'); // Same replacement as String.getBytes()
+            else {
+                putBody(0xE0 | (c >> 12));
+                putBody(0x80 | ((c >> 6) & 0x3F));
+                putBody(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes a byte of a body, starting a new chunk first if the body is chunked and the current chunk is full.
+     */
+    private void putBody(int b) {
+        if (chunkSize > 0 && chunkLeft == 0) startChunk(bodyLeft);
+        put(b);
+        chunkLeft--;
+        bodyLeft--;
+    }
+
+    /**
+     * Starts the next chunk, as long as the chunk size allows and the rest of the body, when its length is known,
+     * or else the rest of the current part.
+     */
+    private void startChunk(int partLeft) {
+        if (!firstChunk) writeCRLF();
+        firstChunk = false;
+        chunkLeft = Math.min(chunkSize, (bodyLeft >= 0) ? bodyLeft : partLeft);
+        writeHex(chunkLeft);
+        writeCRLF();
+    }
+
+    private void put(int b) {
+        if (current == null || !current.hasRemaining()) nextBuffer();
+        current.put((byte) b);
+    }
+
+    private void nextBuffer() {
+        if (count == buffers.length) buffers = Arrays.copyOf(buffers, count * 2);
+        current = buffers[count++] = acquire();
+    }
+
+    /**
+     * Lays a read-only buffer, ready to be written, after the bytes written so far.
+     * The bytes written next go to a new pooled buffer.
+     */
+    private void addBuffer(ByteBuffer ready) {
+        if (count == buffers.length) buffers = Arrays.copyOf(buffers, count * 2);
+        buffers[count++] = ready;
+        current = null;
+    }
+
+
+    // OUTPUT METHODS ------------------------------------------------------------
+    public boolean isEmpty() { return count == 0; }
+
+    /**
+     * Returns the number of bytes written since the writer was created, whether they were sent already or not.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        long bytes = bytesTaken;
+        for (int i = 0; i < count; i++) bytes += pending(buffers[i]);
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes a gathered buffer holds: the bytes written to a pooled buffer,
+     * or the bytes left to write of a shared one.
+     */
+    private static int pending(ByteBuffer buffer) { return buffer.isReadOnly() ? buffer.remaining() : buffer.position(); }
+
+    /**
+     * Writes everything gathered so far to a blocking channel, with gathering writes when the channel
+     * supports them, then gives the buffers back to the pool.
+     *
+     * @param channel the channel of the client
+     * @throws IOException if the responses cannot be written
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        if (isEmpty()) return;
+        ByteBuffer[] responses = takeBuffers();
+        try {
+            if (channel instanceof GatheringByteChannel) {
+                GatheringByteChannel gathering = (GatheringByteChannel) channel;
+                while (responses[responses.length - 1].hasRemaining()) gathering.write(responses);
+            }
+            else {
+                for (ByteBuffer response : responses)
+                    while (response.hasRemaining()) channel.write(response);
+            }
+        } finally { release(responses); }
+    }
+
+    /**
+     * Hands the buffers gathered so far over to the caller, ready to be written.
+     * The caller gives them back with release() once they are written.
+     *
+     * @return the flipped buffers, in order
+     */
+    public ByteBuffer[] takeBuffers() {
+        ByteBuffer[] responses = Arrays.copyOf(buffers, count);
+        for (ByteBuffer response : responses) bytesTaken += pending(response);
+        // Shared buffers are read-only and already ready to be written
+        for (ByteBuffer response : responses) if (!response.isReadOnly()) response.flip();
+        Arrays.fill(buffers, 0, count, null);
+        count = 0;
+        current = null;
+        return responses;
+    }
+
+    /**
+     * Gives back to the pool the buffers of responses that will not be written.
+     */
+    public void discard() {
+        for (int i = 0; i < count; i++) bytesTaken += pending(buffers[i]);
+        release(Arrays.copyOf(buffers, count));
+        Arrays.fill(buffers, 0, count, null);
+        count = 0;
+        current = null;
+    }
+}
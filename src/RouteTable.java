@@ -0,0 +1,74 @@
+import java.util.Arrays;
+
+/**
+ * The RouteTable class maps request paths to their handlers.
+ * Paths are stored in a trie keyed on their characters, so that a lookup walks the path once,
+ * whatever the number of routes, and never compiles or runs a regular expression.
+ *
+ * @param <T> the type of the handlers
+ */
+public class RouteTable<T> {
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Registers the handler of an exact path, replacing any handler already registered for it.
+     *
+     * @param path    the path, without query string
+     * @param handler the handler of the path
+     */
+    public void add(String path, T handler) {
+        if (path == null || handler == null)
+            throw new IllegalArgumentException("Neither path nor handler can be null");
+
+        Node<T> node = root;
+        for (int i = 0; i < path.length(); i++) node = node.childOrCreate(path.charAt(i));
+        node.handler = handler;
+    }
+
+    /**
+     * Finds the handler of the path part of a URI, the query string being ignored.
+     *
+     * @param uri the request URI
+     * @return the handler registered for the path, or null if there is none
+     */
+    public T lookup(String uri) {
+        int end = uri.indexOf('?');
+        if (end < 0) end = uri.length();
+
+        Node<T> node = root;
+        for (int i = 0; i < end && node != null; i++) node = node.child(uri.charAt(i));
+        return (node == null) ? null : node.handler;
+    }
+
+
+    /**
+     * A node of the trie: the handler of the path leading to it, if any, and its children.
+     * Routes share long prefixes and branch little, so children are kept in small parallel arrays.
+     */
+    private static class Node<T> {
+        private char[] keys = new char[0];
+        private Node<T>[] children = newArray(0);
+        private T handler;
+
+        Node<T> child(char key) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] == key) return children[i];
+            return null;
+        }
+
+        Node<T> childOrCreate(char key) {
+            Node<T> child = child(key);
+            if (child != null) return child;
+
+            child = new Node<>();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = key;
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int length) { return (Node<T>[]) new Node<?>[length]; }
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ServerMetrics class gathers the counters describing the load on the server
+ * and renders them in the Prometheus text exposition format, served on /metrics.
+ * Counters are LongAdders so that worker threads never contend when recording,
+ * and rendering only reads their sums: it never locks the request path.
+ */
+public class ServerMetrics {
+    public static final int OTHER_ROUTE = 0; // Requests that match no route, or that could not be read
+    private static final int MAX_STATUS = 600;
+    // Upper bounds of the latency buckets, in seconds
+    private static final String[] LATENCY_BUCKETS = { "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005",
+                                                      "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5" };
+    private static final long[] LATENCY_BOUNDS = new long[LATENCY_BUCKETS.length]; // The same bounds, in nanoseconds
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) LATENCY_BOUNDS[i] = Math.round(Double.parseDouble(LATENCY_BUCKETS[i]) * 1e9);
+    }
+
+    private static final LongAdder SHED_CONNECTIONS = new LongAdder();
+    private static final LongAdder IN_FLIGHT = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder GAMES_WON = new LongAdder();
+    private static final LongAdder GAMES_LOST = new LongAdder();
+    private static final LongAdder GAMES_ABANDONED = new LongAdder();
+    private static volatile RouteStats[] routes = { new RouteStats("other") };
+    private static volatile BlockingQueue<Runnable> acceptQueue = null;
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    /**
+     * The phases of the request pipeline, each timed in its own latency histogram.
+     */
+    public enum Phase {
+        PARSE,    // Checks of the request line and headers, session lookup excluded
+        SESSION,  // Lookup, creation and expiry of the session
+        VALIDATE, // Lookup of the guess in the word list
+        SCORE,    // Coloring of the guess against the secret word
+        RENDER,   // Rendering of the board of the page, and its compression
+        WRITE;    // Writes of the gathered responses to the socket
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        /**
+         * Records the duration of the phase for a request.
+         *
+         * @param nanos the duration, in nanoseconds
+         */
+        public void record(long nanos) { histogram.record(nanos); }
+    }
+
+    /**
+     * Registers a route, so that its requests are counted apart.
+     *
+     * @param path the path of the route, used as its label
+     * @return the ID of the route, to be given to requestEnded()
+     */
+    public static synchronized int registerRoute(String path) {
+        RouteStats[] registered = Arrays.copyOf(routes, routes.length + 1);
+        registered[routes.length] = new RouteStats(path);
+        routes = registered;
+        return routes.length - 1;
+    }
+
+    // Recorders
+    public static void registerAcceptQueue(BlockingQueue<Runnable> queue) { acceptQueue = queue; }
+    public static void connectionShed() { SHED_CONNECTIONS.increment(); }
+    public static void requestStarted() { IN_FLIGHT.increment(); }
+    public static void gameWon() { GAMES_WON.increment(); }
+    public static void gameLost() { GAMES_LOST.increment(); }
+    public static void gameAbandoned() { GAMES_ABANDONED.increment(); }
+
+    /**
+     * Records a request whose response has been written, ending a request counted by requestStarted() if there was one.
+     *
+     * @param routeID       the ID of the route of the request, or OTHER_ROUTE
+     * @param statusCode    the status code of the response
+     * @param bytes         the number of bytes of the response
+     * @param durationNanos the time taken to handle the request, in nanoseconds
+     * @param started       whether requestStarted() was called for the request
+     */
+    public static void requestEnded(int routeID, int statusCode, long bytes, long durationNanos, boolean started) {
+        if (started) IN_FLIGHT.decrement();
+        BYTES_WRITTEN.add(bytes);
+        RouteStats route = routes[routeID];
+        route.responses(statusCode).increment();
+        route.latency(durationNanos);
+    }
+
+    // Getters
+    public static int getAcceptQueueLength() {
+        BlockingQueue<Runnable> queue = acceptQueue;
+        return (queue == null) ? 0 : queue.size();
+    }
+    public static long getShedConnections() { return SHED_CONNECTIONS.sum(); }
+    public static String getRouteName(int routeID) { return routes[routeID].path; }
+
+    /**
+     * Renders all the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics as a String
+     */
+    public static String render() {
+        StringBuilder metrics = new StringBuilder();
+        appendRequests(metrics);
+        appendLatency(metrics);
+        appendPhases(metrics);
+        appendMetric(metrics, "wordle_requests_in_flight", "gauge",
+                "Requests being handled.", IN_FLIGHT.sum());
+        appendMetric(metrics, "wordle_response_bytes_total", "counter",
+                "Bytes of the responses written, headers included.", BYTES_WRITTEN.sum());
+        appendMetric(metrics, "wordle_sessions_active", "gauge",
+                "Game sessions held by the server.", WordleServer.getSessionCount());
+        appendHeader(metrics, "wordle_games_total", "counter", "Games ended, by outcome.");
+        metrics.append("wordle_games_total{outcome=\"win\"} ").append(GAMES_WON.sum()).append('\n');
+        metrics.append("wordle_games_total{outcome=\"gameover\"} ").append(GAMES_LOST.sum()).append('\n');
+        metrics.append("wordle_games_total{outcome=\"abandoned\"} ").append(GAMES_ABANDONED.sum()).append('\n');
+        appendMetric(metrics, "wordle_accept_queue_length", "gauge",
+                "Connections or requests waiting for a worker thread.", getAcceptQueueLength());
+        appendMetric(metrics, "wordle_shed_connections_total", "counter",
+                "Connections answered with 503 because the accept queue was full.", getShedConnections());
+        appendMetric(metrics, "wordle_image_cache_hits_total", "counter",
+                "Images served from the image cache.", ImageEncoder.getCacheHits());
+        appendMetric(metrics, "wordle_image_cache_misses_total", "counter",
+                "Images read from disk because they were not cached or had been modified.", ImageEncoder.getCacheMisses());
+        appendMetric(metrics, "wordle_access_log_dropped_total", "counter",
+                "Access log records dropped because the log buffer was full.", AccessLog.getDropped());
+        return metrics.toString();
+    }
+
+
+    // RENDERING METHODS ------------------------------------------------------------
+    /**
+     * Appends the number of requests by route and status code. Only the status codes seen so far are shown.
+     */
+    private static void appendRequests(StringBuilder metrics) {
+        appendHeader(metrics, "wordle_requests_total", "counter", "Requests answered, by route and status code.");
+        for (RouteStats route : routes) {
+            for (int status = 0; status < MAX_STATUS; status++) {
+                LongAdder responses = route.responses.get(status);
+                if (responses == null) continue;
+                metrics.append("wordle_requests_total{route=\"").append(route.path)
+                       .append("\",code=\"").append(status).append("\"} ").append(responses.sum()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Appends the latency histogram of each route that has been requested.
+     */
+    private static void appendLatency(StringBuilder metrics) {
+        appendHeader(metrics, "wordle_request_duration_seconds", "histogram", "Time taken to handle a request, by route.");
+        long[] counts = new long[LATENCY_BUCKETS.length + 1];
+        for (RouteStats route : routes) {
+            // Each bucket is read once, so that the buckets, cumulative in the exposition, and the count agree
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) total += counts[i] = route.buckets[i].sum();
+            if (total == 0) continue;
+
+            long cumulated = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                cumulated += counts[i];
+                metrics.append("wordle_request_duration_seconds_bucket{route=\"").append(route.path)
+                       .append("\",le=\"").append(LATENCY_BUCKETS[i]).append("\"} ").append(cumulated).append('\n');
+            }
+            metrics.append("wordle_request_duration_seconds_bucket{route=\"").append(route.path)
+                   .append("\",le=\"+Inf\"} ").append(total).append('\n');
+            metrics.append("wordle_request_duration_seconds_sum{route=\"").append(route.path)
+                   .append("\"} ").append(route.sumNanos.sum() / 1e9).append('\n');
+            metrics.append("wordle_request_duration_seconds_count{route=\"").append(route.path)
+                   .append("\"} ").append(total).append('\n');
+        }
+    }
+
+    /**
+     * Appends the percentiles of the duration of each phase of the request pipeline, as a summary.
+     */
+    private static void appendPhases(StringBuilder metrics) {
+        appendHeader(metrics, "wordle_phase_duration_seconds", "summary", "Time spent in each phase of the request pipeline.");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram.Snapshot snapshot = phase.histogram.snapshot();
+            String label = phase.name().toLowerCase();
+            for (double quantile : QUANTILES) {
+                metrics.append("wordle_phase_duration_seconds{phase=\"").append(label).append("\",quantile=\"").append(quantile)
+                       .append("\"} ").append(snapshot.getPercentile(quantile * 100) / 1e9).append('\n');
+            }
+            metrics.append("wordle_phase_duration_seconds_sum{phase=\"").append(label).append("\"} ")
+                   .append(snapshot.getSum() / 1e9).append('\n');
+            metrics.append("wordle_phase_duration_seconds_count{phase=\"").append(label).append("\"} ")
+                   .append(snapshot.getCount()).append('\n');
+        }
+    }
+
+    /**
+     * Appends a single-valued metric with its HELP and TYPE lines.
+     *
+     * @param metrics the builder receiving the exposition
+     * @param name    the name of the metric
+     * @param type    the Prometheus type of the metric
+     * @param help    the description of the metric
+     * @param value   the current value of the metric
+     */
+    private static void appendMetric(StringBuilder metrics, String name, String type, String help, long value) {
+        appendHeader(metrics, name, type, help);
+        metrics.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHeader(StringBuilder metrics, String name, String type, String help) {
+        metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        metrics.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+
+    /**
+     * The counters of a route: its responses by status code, created on first use, and its latency histogram.
+     */
+    private static final class RouteStats {
+        private final String path;
+        private final AtomicReferenceArray<LongAdder> responses = new AtomicReferenceArray<>(MAX_STATUS);
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1]; // The last one is +Inf
+        private final LongAdder sumNanos = new LongAdder();
+
+        RouteStats(String path) {
+            this.path = path;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        LongAdder responses(int statusCode) {
+            int index = (statusCode >= 0 && statusCode < MAX_STATUS) ? statusCode : 0;
+            LongAdder adder = responses.get(index);
+            if (adder == null) {
+                responses.compareAndSet(index, null, new LongAdder());
+                adder = responses.get(index);
+            }
+            return adder;
+        }
+
+        void latency(long nanos) {
+            int bucket = 0;
+            while (bucket < LATENCY_BOUNDS.length && nanos > LATENCY_BOUNDS[bucket]) bucket++;
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+    }
+}
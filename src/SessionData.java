@@ -2,6 +2,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The SessionData class represents the data associated with a game session.
@@ -13,6 +14,7 @@ public class SessionData {
     private int attempt = 0;
     private long lastActivityTime;
     private String status = "Playing"; // "Playing", "Win", "Gameover"
+    private final AtomicLong version = new AtomicLong(); // Incremented on every change of the game, so that a rendered page can be validated
     private final String secretWord;
     private final Map<Integer, List<String>> gameState = new HashMap<Integer, List<String>>();
 
@@ -41,6 +43,7 @@ public class SessionData {
     public long getLastActivityTime() { return this.lastActivityTime; }
     public String getStatus() { return this.status; }
     public String getSecretWord() { return this.secretWord; }
+    public long getVersion() { return this.version.get(); }
     public String getFullGameState() {
         String fullGameState = "";
         for (int i = -1; i < 6; i++) {
@@ -49,17 +52,26 @@ public class SessionData {
         }
         return fullGameState;
     }
+    public String getGuess(int row) { return gameState.get(row).get(0); }
+    public String getColorPattern(int row) { return gameState.get(row).get(1); }
     public String getCurrGameState(int currGS) {
         List<String> data = gameState.get(currGS);
         return currGS + ":" + data.get(0) + ":" + data.get(1);
     }
     
     // Setters
-    public void incrementAttempts() { this.attempt++; }
-    public void decrementAttempts() { this.attempt--; }
-    public void resetAttempts() { this.attempt = 0; }
+    public void incrementAttempts() { this.attempt++; this.version.incrementAndGet(); }
+    public void decrementAttempts() { this.attempt--; this.version.incrementAndGet(); }
+    public void resetAttempts() { this.attempt = 0; this.version.incrementAndGet(); }
     public void updateLastActivityTime() { this.lastActivityTime = System.currentTimeMillis(); }
-    public void setStatus(String status) { this.status = status; }
+    public void setStatus(String status) {
+        if (!status.equals(this.status)) {
+            this.version.incrementAndGet();
+            if (status.equals("Win")) ServerMetrics.gameWon();
+            else if (status.equals("Gameover")) ServerMetrics.gameLost();
+        }
+        this.status = status;
+    }
     public void addGameState(String guess, String color) {
         List<String> data = new ArrayList<String>();
         data.add(guess);
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.Deflater;
+
+/**
+ * The StaticAssets class holds the resources the game page links to when they are not inlined:
+ * the style sheet, the scripts and the logo, served under /static/.
+ * Each asset is encoded, compressed when worth it and given its headers once, and its body is kept in
+ * a shared direct buffer. Its ETag is a hash of its content, which also versions its URL in the page,
+ * so that browsers may keep a versioned asset for a year and revalidate the others with a 304.
+ * The assets are built again when the logo file changes.
+ */
+public class StaticAssets {
+    private static final String LOGO_PATH = "logo.png";
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+    private static volatile StaticAssets instance = null;
+
+    private final byte[] logoBytes;
+    private final Asset styles;
+    private final Asset script;
+    private final Asset logo;
+
+    private StaticAssets(HTML htmlGenerator, byte[] logoBytes) {
+        this.logoBytes = logoBytes;
+        this.styles = new Asset("/static/app.css", "text/css; charset=utf-8",
+                                htmlGenerator.generateStyles().getBytes(StandardCharsets.UTF_8), true);
+        this.script = new Asset("/static/app.js", "text/javascript; charset=utf-8",
+                                htmlGenerator.generateScript().getBytes(StandardCharsets.UTF_8), true);
+        // PNG data is already compressed
+        this.logo = new Asset("/static/logo.png", "image/png", (logoBytes != null) ? logoBytes : new byte[0], false);
+    }
+
+    /**
+     * Returns the static assets, building them on first use and again whenever the logo has changed.
+     *
+     * @return the static assets
+     */
+    public static StaticAssets get() {
+        byte[] logoBytes = currentLogo();
+        StaticAssets assets = instance;
+        // The ImageEncoder returns the same array until the logo file is modified
+        if (assets == null || assets.logoBytes != logoBytes) {
+            synchronized (StaticAssets.class) {
+                if (instance == null || instance.logoBytes != logoBytes) instance = new StaticAssets(new HTML(), logoBytes);
+                assets = instance;
+            }
+        }
+        return assets;
+    }
+
+    private static byte[] currentLogo() {
+        try { return ImageEncoder.getImageBytes(LOGO_PATH); }
+        catch (IOException e) { return null; }
+    }
+
+    /**
+     * Finds the asset served on a path.
+     *
+     * @param path the path of the request, without query string
+     * @return the asset, or null if there is none on this path
+     */
+    public Asset find(String path) {
+        if (path.equals(styles.path)) return styles;
+        if (path.equals(script.path)) return script;
+        if (path.equals(logo.path)) return logo;
+        return null;
+    }
+
+    // Getters
+    public Asset getStyles() { return this.styles; }
+    public Asset getScript() { return this.script; }
+    public Asset getLogo() { return this.logo; }
+
+
+    /**
+     * A static asset: its body as is and compressed with gzip, with the headers describing each of them.
+     */
+    public static final class Asset {
+        private final String path;
+        private final String version;
+        private final ByteBuffer body;
+        private final ByteBuffer gzipBody; // null if the asset is not worth compressing
+        private final String etag;
+        private final String gzipETag;
+        private final byte[] headers;
+        private final byte[] gzipHeaders;
+
+        Asset(String path, String contentType, byte[] body, boolean compress) {
+            this.path = path;
+            this.version = hash(body);
+            byte[] gzipBody = compress ? Gzip.compress(body, Deflater.BEST_COMPRESSION) : null;
+            this.body = ResponseWriter.share(body);
+            this.gzipBody = compress ? ResponseWriter.share(gzipBody) : null;
+            // Both encodings share the content hash, but each needs its own strong ETag
+            this.etag = "\"" + version + "\"";
+            this.gzipETag = "\"" + version + "-gzip\"";
+            this.headers = entityHeaders(contentType, null, compress, body.length, etag);
+            this.gzipHeaders = compress ? entityHeaders(contentType, "gzip", true, gzipBody.length, gzipETag) : null;
+        }
+
+        /**
+         * Returns the URL of the asset, versioned by its content so that it may be cached for good.
+         *
+         * @return the versioned URL
+         */
+        public String getUrl() { return this.path + "?v=" + this.version; }
+
+        public boolean isCompressible() { return this.gzipBody != null; }
+        public ByteBuffer getBody(boolean gzipped) { return gzipped ? this.gzipBody : this.body; }
+        public String getETag(boolean gzipped) { return gzipped ? this.gzipETag : this.etag; }
+
+        /**
+         * Returns the Content-Type, Content-Encoding, Vary, Content-Length and ETag header lines of a 200 response.
+         *
+         * @param gzipped whether the body is sent compressed with gzip
+         * @return the header lines, ended by CRLF
+         */
+        public byte[] getHeaders(boolean gzipped) { return gzipped ? this.gzipHeaders : this.headers; }
+
+        /**
+         * Returns the Cache-Control value of a response: versioned URLs never change, the others must be revalidated.
+         *
+         * @param version the version requested in the query string, or null if there is none
+         * @return the Cache-Control value
+         */
+        public String getCacheControl(String version) { return this.version.equals(version) ? IMMUTABLE : REVALIDATE; }
+
+        /**
+         * Tells whether an If-None-Match header matches the asset, in either encoding (weak comparison).
+         *
+         * @param ifNoneMatch the value of the If-None-Match header, or null if the request has none
+         * @return true if the client already holds the asset, false otherwise
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(this.etag) || tag.equals(this.gzipETag)) return true;
+            }
+            return false;
+        }
+
+        private static byte[] entityHeaders(String contentType, String encoding, boolean vary, int length, String etag) {
+            String CRLF = "\r\n";
+            return ("Content-Type: " + contentType + CRLF +
+                    ((encoding != null) ? "Content-Encoding: " + encoding + CRLF : "") +
+                    (vary ? "Vary: Accept-Encoding" + CRLF : "") +
+                    "Content-Length: " + length + CRLF +
+                    "ETag: " + etag + CRLF).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Hashes the content of an asset with SHA-256, keeping the first 64 bits in hexadecimal.
+         */
+        private static String hash(byte[] content) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+                return HexFormat.of().formatHex(digest, 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e); // Every Java platform provides it
+            }
+        }
+    }
+}
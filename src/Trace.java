@@ -0,0 +1,145 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Trace enum holds the categories of debug tracing, each with its own level, switchable at runtime
+ * through /admin/trace or at startup with the wordle.trace property, e.g. "GAME=debug,REQUEST=warn,sample=10".
+ *
+ * A call site tests its category before building its message, so that with tracing off it costs
+ * a single branch and evaluates none of its arguments:
+ *     if (traced && Trace.GAME.isEnabled(Trace.DEBUG)) Trace.GAME.debug(sessionID, "attempt " + currAttempt);
+ * The handler decides once per request whether the request is traced at all, with select() and follows():
+ * tracing may be narrowed to a single session, or to a sample of one request out of N.
+ * Call sites outside a request only test the level of their category.
+ */
+public enum Trace {
+    REQUEST, // Requests rejected or answered with an error
+    SESSION, // Sessions created, resumed and dropped
+    GAME,    // Guesses and game states
+    PAGE;    // Rendering of the game page
+
+    // Levels
+    public static final int OFF = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    private static final String[] LEVEL_NAMES = { "off", "warn", "info", "debug" };
+
+    private static volatile boolean active = false; // Whether any category traces at all
+    private static volatile String session = null; // The only session traced, or null for all of them
+    private static volatile int sampleRate = 1; // One request traced out of sampleRate
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    static {
+        try { configure(System.getProperty("wordle.trace", "")); }
+        catch (IllegalArgumentException e) { System.err.println("-- Ignoring wordle.trace: " + e.getMessage()); }
+    }
+
+    private volatile int level = OFF;
+
+    /**
+     * Tells whether the category traces messages of the given level.
+     *
+     * @param level the level of the message: WARN, INFO or DEBUG
+     * @return true if the message should be traced, false otherwise
+     */
+    public boolean isEnabled(int level) { return this.level >= level; }
+
+    public void warn(String sessionID, String message) { print(WARN, sessionID, message); }
+    public void info(String sessionID, String message) { print(INFO, sessionID, message); }
+    public void debug(String sessionID, String message) { print(DEBUG, sessionID, message); }
+
+    private void print(int level, String sessionID, String message) {
+        String prefix = "[" + LEVEL_NAMES[level] + " " + name() + "] ";
+        if (sessionID != null && !sessionID.isEmpty()) prefix += sessionID + " ";
+        System.err.println(prefix + message);
+    }
+
+
+    // REQUEST METHODS ------------------------------------------------------------
+    /**
+     * Decides whether a new request is traced: never when all the categories are off,
+     * otherwise one request out of the sample rate.
+     *
+     * @return true if the request is traced, false otherwise
+     */
+    public static boolean select() {
+        if (!active) return false;
+        int rate = sampleRate;
+        return rate <= 1 || REQUESTS.getAndIncrement() % rate == 0;
+    }
+
+    /**
+     * Tells whether the requests of a session are traced, once the session of a request is known.
+     *
+     * @param sessionID the session of the request
+     * @return true if all the sessions are traced or if this is the traced one, false otherwise
+     */
+    public static boolean follows(String sessionID) {
+        String traced = session;
+        return traced == null || traced.equals(sessionID);
+    }
+
+
+    // CONFIGURATION METHODS ------------------------------------------------------------
+    /**
+     * Applies a tracing configuration: a list of settings separated by '&' or ',', each one being
+     * CATEGORY=level (or all=level), session=ID (or session= for every session) or sample=N.
+     *
+     * @param settings the settings to apply, possibly empty
+     * @throws IllegalArgumentException if a setting is not understood, in which case none is applied
+     */
+    public static synchronized void configure(String settings) {
+        int[] levels = new int[values().length];
+        for (Trace category : values()) levels[category.ordinal()] = category.level;
+        String newSession = session;
+        int newSampleRate = sampleRate;
+
+        for (String setting : settings.split("[&,]")) {
+            if (setting.isBlank()) continue;
+            int equals = setting.indexOf('=');
+            if (equals < 0) throw new IllegalArgumentException("Invalid trace setting: " + setting);
+            String name = setting.substring(0, equals).trim();
+            String value = setting.substring(equals + 1).trim();
+
+            if (name.equalsIgnoreCase("session")) newSession = value.isEmpty() ? null : value;
+            else if (name.equalsIgnoreCase("sample")) {
+                try { newSampleRate = Math.max(1, Integer.parseInt(value)); }
+                catch (NumberFormatException e) { throw new IllegalArgumentException("Invalid sample rate: " + value); }
+            }
+            else if (name.equalsIgnoreCase("all")) Arrays.fill(levels, parseLevel(value));
+            else levels[category(name).ordinal()] = parseLevel(value);
+        }
+
+        boolean anyEnabled = false;
+        for (Trace category : values()) {
+            category.level = levels[category.ordinal()];
+            anyEnabled |= category.level > OFF;
+        }
+        session = newSession;
+        sampleRate = newSampleRate;
+        active = anyEnabled;
+    }
+
+    /**
+     * Describes the current tracing configuration, one setting per line.
+     *
+     * @return the configuration, in the syntax accepted by configure()
+     */
+    public static String describe() {
+        StringBuilder description = new StringBuilder();
+        for (Trace category : values()) description.append(category.name()).append('=').append(LEVEL_NAMES[category.level]).append('\n');
+        description.append("session=").append((session == null) ? "" : session).append('\n');
+        description.append("sample=").append(sampleRate).append('\n');
+        return description.toString();
+    }
+
+    private static Trace category(String name) {
+        for (Trace category : values()) if (category.name().equalsIgnoreCase(name)) return category;
+        throw new IllegalArgumentException("Unknown trace category: " + name);
+    }
+
+    private static int parseLevel(String name) {
+        for (int level = OFF; level <= DEBUG; level++) if (LEVEL_NAMES[level].equalsIgnoreCase(name)) return level;
+        throw new IllegalArgumentException("Unknown trace level: " + name);
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The WordleBenchmark class is a small load generator used to compare the server engines.
+ * It runs the same load against one or more running servers and prints their
+ * throughput and latency side by side.
+ *
+ * Usage: java WordleBenchmark clients requestsPerClient label=host:port [label=host:port ...]
+ * The requested path can be changed with -Dbench.path (default /play.html).
+ *
+ * Every request is sent on a new connection, so with a cheap path the request rate is the
+ * connection rate of the server. To see how it scales with the number of acceptors, start one
+ * server per setting and compare them, e.g.:
+ *   java -Dwordle.acceptors=1 -Dwordle.port=8008 WordleServer 64
+ *   java -Dwordle.acceptors=4 -Dwordle.port=8009 WordleServer 64
+ *   java -Dbench.path=/favicon.ico WordleBenchmark 64 500 acceptors1=localhost:8008 acceptors4=localhost:8009
+ */
+public class WordleBenchmark {
+    private static final String PATH = System.getProperty("bench.path", "/play.html");
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: java WordleBenchmark clients requestsPerClient label=host:port [label=host:port ...]");
+            System.exit(1);
+        }
+        int clients = Integer.parseInt(args[0]);
+        int requestsPerClient = Integer.parseInt(args[1]);
+
+        System.out.printf("%-16s %10s %8s %10s %9s %9s %9s%n", "target", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms");
+        for (int i = 2; i < args.length; i++) {
+            String[] target = args[i].split("=", 2);
+            String[] address = target[1].split(":", 2);
+            Result result = run(address[0], Integer.parseInt(address[1]), clients, requestsPerClient);
+            System.out.printf("%-16s %10d %8d %10.1f %9.2f %9.2f %9.2f%n", target[0],
+                    result.latencies.length, result.errors, result.throughput(),
+                    result.percentile(50), result.percentile(99), result.percentile(100));
+        }
+    }
+
+    /**
+     * Runs the load against one server: each client thread sends its requests one after
+     * the other, each on a new connection, and records how long every response took.
+     *
+     * @param host              the host of the server
+     * @param port              the port of the server
+     * @param clients           the number of concurrent clients
+     * @param requestsPerClient the number of requests sent by each client
+     * @return the measured result
+     */
+    private static Result run(String host, int port, int clients, int requestsPerClient) throws InterruptedException {
+        long[] latencies = new long[clients * requestsPerClient];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        byte[] request = ("GET " + PATH + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int offset = c * requestsPerClient;
+            new Thread(() -> {
+                byte[] sink = new byte[8192];
+                for (int r = 0; r < requestsPerClient; r++) {
+                    long begin = System.nanoTime();
+                    try (Socket socket = new Socket(host, port)) {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(request);
+                        out.flush();
+                        InputStream in = socket.getInputStream();
+                        while (in.read(sink) != -1) { /* Drain the response */ }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[offset + r] = System.nanoTime() - begin;
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        return new Result(latencies, errors.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * The latencies and errors measured against one server.
+     */
+    private static class Result {
+        private final long[] latencies;
+        private final int errors;
+        private final long elapsedNanos;
+
+        Result(long[] latencies, int errors, long elapsedNanos) {
+            this.latencies = latencies.clone();
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(this.latencies);
+        }
+
+        double throughput() { return latencies.length / (elapsedNanos / 1e9); }
+
+        double percentile(double p) {
+            if (latencies.length == 0) return 0;
+            int index = (int) Math.ceil(p / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+    }
+}
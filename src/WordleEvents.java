@@ -0,0 +1,188 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The WordleEvents class defines the JDK Flight Recorder events of the server: requests, session lifecycle,
+ * guess evaluation and page rendering, so that a recording of production traffic can relate GC pauses
+ * or lock contention to the phases of the game flow.
+ * Every helper first checks whether its event type is enabled in a recording: while none is,
+ * they allocate nothing and cost a single check.
+ */
+public class WordleEvents {
+    private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+    private static final EventType SESSION = EventType.getEventType(SessionEvent.class);
+    private static final EventType GUESS = EventType.getEventType(GuessEvent.class);
+    private static final EventType PAGE_RENDER = EventType.getEventType(PageRenderEvent.class);
+
+    // Session actions
+    public static final String SESSION_CREATED = "created";
+    public static final String SESSION_EXPIRED = "expired";
+    public static final String SESSION_REMOVED = "removed";
+
+    /**
+     * Starts the event of a request, on its first byte.
+     *
+     * @return the started event, or null if requests are not recorded
+     */
+    public static RequestEvent beginRequest() {
+        if (!REQUEST.isEnabled()) return null;
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of a request once its response has been written.
+     *
+     * @param event         the event returned by beginRequest(), or null
+     * @param remoteAddress the address of the client
+     * @param request       the parser holding the request, or null if the request could not be read
+     * @param route         the route of the request
+     * @param statusCode    the status code of the response
+     * @param bytes         the number of bytes of the response
+     * @param sessionID     the session of the request, or an empty String if there is none
+     */
+    public static void endRequest(RequestEvent event, String remoteAddress, HttpRequestParser request, String route,
+                                  int statusCode, long bytes, String sessionID) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.remoteAddress = remoteAddress;
+        event.method = (request != null) ? request.getMethod() : null;
+        event.uri = (request != null) ? request.getURI() : null;
+        event.route = route;
+        event.statusCode = statusCode;
+        event.bytes = bytes;
+        event.sessionID = sessionID;
+        event.commit();
+    }
+
+    /**
+     * Records a step of the lifecycle of a session.
+     *
+     * @param action    SESSION_CREATED, SESSION_EXPIRED or SESSION_REMOVED
+     * @param sessionID the session
+     * @param status    the status of the game of the session
+     */
+    public static void session(String action, String sessionID, String status) {
+        if (!SESSION.isEnabled()) return;
+        SessionEvent event = new SessionEvent();
+        event.action = action;
+        event.sessionID = sessionID;
+        event.status = status;
+        event.commit();
+    }
+
+    /**
+     * Starts the event of the evaluation of a guess: its lookup in the word list or its scoring.
+     *
+     * @return the started event, or null if guesses are not recorded
+     */
+    public static GuessEvent beginGuess() {
+        if (!GUESS.isEnabled()) return null;
+        GuessEvent event = new GuessEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of the evaluation of a guess.
+     *
+     * @param event     the event returned by beginGuess(), or null
+     * @param sessionID the session of the guess
+     * @param guess     the guess
+     * @param valid     whether the guess is in the word list
+     * @param pattern   the colors of the guess, or null if it was not scored
+     */
+    public static void endGuess(GuessEvent event, String sessionID, String guess, boolean valid, String pattern) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.sessionID = sessionID;
+        event.guess = guess;
+        event.valid = valid;
+        event.pattern = pattern;
+        event.commit();
+    }
+
+    /**
+     * Starts the event of the rendering of the board of a page.
+     *
+     * @return the started event, or null if renderings are not recorded
+     */
+    public static PageRenderEvent beginPageRender() {
+        if (!PAGE_RENDER.isEnabled()) return null;
+        PageRenderEvent event = new PageRenderEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of the rendering of the board of a page.
+     *
+     * @param event     the event returned by beginPageRender(), or null
+     * @param sessionID the session whose game is shown
+     * @param gzipped   whether the board was compressed
+     * @param bytes     the size of the rendered board, before compression
+     */
+    public static void endPageRender(PageRenderEvent event, String sessionID, boolean gzipped, long bytes) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.sessionID = sessionID;
+        event.gzipped = gzipped;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+
+    @Name("wordle.Request")
+    @Label("HTTP Request")
+    @Category({ "Wordle", "HTTP" })
+    @Description("A request, from its first byte to its response being ready")
+    static final class RequestEvent extends Event {
+        @Label("Remote Address") String remoteAddress;
+        @Label("Method") String method;
+        @Label("URI") String uri;
+        @Label("Route") String route;
+        @Label("Status Code") int statusCode;
+        @Label("Response Size") @DataAmount long bytes;
+        @Label("Session ID") String sessionID;
+    }
+
+    @Name("wordle.Session")
+    @Label("Session Lifecycle")
+    @Category({ "Wordle", "Game" })
+    @Description("A session created, expired or removed")
+    static final class SessionEvent extends Event {
+        @Label("Action") String action;
+        @Label("Session ID") String sessionID;
+        @Label("Game Status") String status;
+    }
+
+    @Name("wordle.Guess")
+    @Label("Guess Evaluation")
+    @Category({ "Wordle", "Game" })
+    @Description("A guess looked up in the word list, or scored against the secret word")
+    static final class GuessEvent extends Event {
+        @Label("Session ID") String sessionID;
+        @Label("Guess") String guess;
+        @Label("Valid") boolean valid;
+        @Label("Color Pattern") String pattern;
+    }
+
+    @Name("wordle.PageRender")
+    @Label("Page Render")
+    @Category({ "Wordle", "HTTP" })
+    @Description("The board of the game page rendered, and compressed if the page is gzipped")
+    static final class PageRenderEvent extends Event {
+        @Label("Session ID") String sessionID;
+        @Label("Gzipped") boolean gzipped;
+        @Label("Board Size") @DataAmount long bytes;
+    }
+}
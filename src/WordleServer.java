@@ -1,11 +1,22 @@
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 
 /**
@@ -15,27 +26,182 @@ import java.util.concurrent.Executors;
  */
 public class WordleServer {
     private static final int SERVER_ID = new Random().nextInt(9999);
-    private static final int PORT = 8008;
-    private static final int MAX_CHUNCK_SIZE = 128;
+    private static final int PORT = Integer.getInteger("wordle.port", 8008);
+    private static final int MAX_CHUNCK_SIZE = Integer.getInteger("wordle.chunkSize", 0); // bytes, 0 to size chunks to the socket send buffer
     private static final int MAX_ATTEMPTS = 5;
+    private static final int KEEP_ALIVE_TIMEOUT = Integer.getInteger("wordle.keepAliveTimeout", 5000); // milliseconds
+    private static final int MAX_KEEP_ALIVE_REQUESTS = Integer.getInteger("wordle.maxKeepAliveRequests", 100);
+    private static final int READ_TIMEOUT = Integer.getInteger("wordle.readTimeout", 5000); // milliseconds
+    private static final int REQUEST_TIMEOUT = Integer.getInteger("wordle.requestTimeout", 10000); // milliseconds
+    private static final int MAX_REQUEST_LINE_LENGTH = Integer.getInteger("wordle.maxRequestLine", 8192);
+    private static final int MAX_HEADER_LINE_LENGTH = Integer.getInteger("wordle.maxHeaderLine", 8192);
+    private static final int MAX_HEADERS = Integer.getInteger("wordle.maxHeaders", 100);
+    private static final int MAX_BODY_SIZE = Integer.getInteger("wordle.maxBodySize", 64 * 1024); // bytes
+    private static final int GZIP_MIN_SIZE = Integer.getInteger("wordle.gzipMinSize", 1024); // bytes
+    private static final int GZIP_LEVEL = validGzipLevel(Integer.getInteger("wordle.gzipLevel", 6)); // 0 (none) to 9 (best), -1 for the zlib default
+    private static final boolean STATIC_ASSETS = Boolean.getBoolean("wordle.staticAssets"); // link styles, scripts and logo from /static
+    private static final String ACCESS_LOG = System.getProperty("wordle.accessLog", "access.log"); // "-" for the standard output, "off" to disable
+    private static final String ACCESS_LOG_FORMAT = System.getProperty("wordle.accessLogFormat", "common");
+    private static final int ACCESS_LOG_BUFFER = Integer.getInteger("wordle.accessLogBuffer", 8192); // records
+    private static final int ACCESS_LOG_MAX_SIZE = Integer.getInteger("wordle.accessLogMaxSize", 10 * 1024 * 1024); // bytes, 0 to never rotate
+    private static final int ACCESS_LOG_FILES = Integer.getInteger("wordle.accessLogFiles", 5); // rotated files kept
+    private static final int ACCEPT_QUEUE_CAPACITY = Integer.getInteger("wordle.acceptQueue", 100);
+    private static final int LINGER_TIMEOUT = Integer.getInteger("wordle.lingerTimeout", 500); // milliseconds
+    private static final int ACCEPTORS = supportedAcceptors(Integer.getInteger("wordle.acceptors", 1));
+    private static final int EVENT_LOOPS = Integer.getInteger("wordle.eventLoops", Runtime.getRuntime().availableProcessors());
     private static final Map<String, SessionData> SESSIONS = new ConcurrentHashMap<>(); // ConcurrentHashMap ensures thread safety
+    private static final ScheduledExecutorService LINGERING_CLOSER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "lingering-closer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static void main(String[] args) {
         // Create a thread pool with X threads
         int maxThreads = Integer.parseInt(args[0]);
-        ExecutorService executorService = Executors.newFixedThreadPool(maxThreads);
-    
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("-- Wordle HTTP Server is listening on port " + PORT + ".");
+        String mode = (args.length > 1) ? args[1] : "pool";
+
+        // Render and compress the static parts of the game page before serving
+        PageCache.get();
+
+        if (mode.equals("nio")) startNioServer(maxThreads);
+        else if (mode.equals("virtual")) startVirtualThreadServer(maxThreads);
+        else startThreadPoolServer(maxThreads);
+    }
+
+    /**
+     * Runs the blocking engine: every accepted socket is handled by an HttpHandler
+     * on a fixed pool of maxThreads threads.
+     *
+     * @param maxThreads the number of threads of the pool
+     */
+    private static void startThreadPoolServer(int maxThreads) {
+        ExecutorService executorService = newBoundedExecutor(maxThreads);
+        acceptConnections("thread pool", executorService, null);
+    }
+
+    /**
+     * Creates a fixed pool of worker threads fed by a bounded queue.
+     * Once the queue is full, execute() throws a RejectedExecutionException instead of
+     * letting the waiting work pile up in memory; callers shed the load with a 503.
+     *
+     * @param threads the number of worker threads
+     * @return the executor
+     */
+    static ExecutorService newBoundedExecutor(int threads) {
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(ACCEPT_QUEUE_CAPACITY);
+        ServerMetrics.registerAcceptQueue(queue);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue);
+    }
+
+    /**
+     * Runs the blocking engine on virtual threads: every accepted socket gets its own
+     * virtual thread, while a semaphore caps the number of connections handled at once
+     * to maxThreads so that the server keeps its DoS protection.
+     * Virtual threads need Java 21; older runtimes fall back to one platform thread per connection.
+     *
+     * @param maxThreads the maximum number of connections handled concurrently
+     */
+    private static void startVirtualThreadServer(int maxThreads) {
+        ExecutorService executorService;
+        try {
+            executorService = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("-- Virtual threads are not available on this Java version, using platform threads.");
+            executorService = Executors.newCachedThreadPool();
+        }
+        acceptConnections("virtual threads", executorService, new Semaphore(maxThreads));
+    }
+
+    /**
+     * Starts the acceptors of the blocking engines. With more than one acceptor, each
+     * thread listens on its own SO_REUSEPORT socket so that the kernel spreads new
+     * connections across them instead of funnelling them through a single accept().
+     *
+     * @param engine          the name of the engine, for logging
+     * @param executorService the executor running the handlers
+     * @param permits         the concurrency cap, or null if the executor is already bounded
+     */
+    private static void acceptConnections(String engine, ExecutorService executorService, Semaphore permits) {
+        System.out.println("-- Wordle HTTP Server (" + engine + ", " + ACCEPTORS + " acceptors) is listening on port " + PORT + ".");
+
+        for (int i = 1; i < ACCEPTORS; i++) {
+            Thread acceptor = new Thread(() -> acceptLoop(executorService, permits), "acceptor-" + i);
+            acceptor.start();
+        }
+        acceptLoop(executorService, permits);
+    }
+
+    /**
+     * Decides once, at startup, the number of acceptors to run. Several acceptors need SO_REUSEPORT;
+     * where the platform lacks it, the server falls back to a single acceptor.
+     *
+     * @param requested the number of acceptors asked for with wordle.acceptors
+     * @return the number of acceptors
+     */
+    private static int supportedAcceptors(int requested) {
+        if (requested <= 1) return 1;
+        try (ServerSocket probe = new ServerSocket()) {
+            if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) return requested;
+        } catch (IOException ioe) { /* Fall back to a single acceptor */ }
+        System.err.println("-- SO_REUSEPORT is not supported on this platform, using a single acceptor.");
+        return 1;
+    }
+
+    /**
+     * Checks the compression level asked for with wordle.gzipLevel at startup, rather than on the first compressed response.
+     *
+     * @param requested the level asked for
+     * @return the level, or the default level 6 if the one asked for is not a Deflater level (-1 to 9)
+     */
+    private static int validGzipLevel(int requested) {
+        if (requested >= Deflater.DEFAULT_COMPRESSION && requested <= Deflater.BEST_COMPRESSION) return requested;
+        System.err.println("-- Ignoring wordle.gzipLevel=" + requested + ", which is not between -1 and 9, using 6.");
+        return 6;
+    }
+
+    /**
+     * Opens a listening socket on the server port, shared with the other acceptors through SO_REUSEPORT if there are several.
+     *
+     * @return the bound server socket
+     * @throws IOException if the socket cannot be bound to the port
+     */
+    private static ServerSocket openServerSocket() throws IOException {
+        // Opened through a channel, so that accepted sockets have a channel for gathering writes
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        if (ACCEPTORS > 1) serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        serverChannel.bind(new InetSocketAddress(PORT));
+        return serverChannel.socket();
+    }
+
+    /**
+     * Accepts connections forever and hands each socket to an HttpHandler run by the executor.
+     * When permits are given, a permit is taken before accepting and released once the
+     * connection is handled, so that waiting connections stay in the kernel backlog.
+     *
+     * @param executorService the executor running the handlers
+     * @param permits         the concurrency cap, or null if the executor is already bounded
+     */
+    private static void acceptLoop(ExecutorService executorService, Semaphore permits) {
+        try (ServerSocket serverSocket = openServerSocket()) {
 
             while (true) {
                 // Accepting new connections
                 try {
+                    if (permits != null) permits.acquireUninterruptibly();
                     Socket clientSocket = serverSocket.accept();
                     // Handle HTTP request in a separate thread
                     HttpHandler httpHandler = new HttpHandler(getServerID(), clientSocket);
-                    executorService.execute(httpHandler);
+                    if (permits == null) {
+                        try { executorService.execute(httpHandler); }
+                        catch (RejectedExecutionException ree) { shedConnection(clientSocket); }
+                    }
+                    else executorService.execute(() -> {
+                        try { httpHandler.run(); }
+                        finally { permits.release(); }
+                    });
                 } catch (IOException ioe2) {
+                    if (permits != null) permits.release();
                     System.err.println("-- Error accepting client connection.");
                     ioe2.printStackTrace();
                 }
@@ -47,11 +213,90 @@ public class WordleServer {
         }
     }
 
+    /**
+     * Answers a connection that no worker can take with the precomputed 503 response, then closes it with closeGracefully().
+     * The response is small enough to fit in the empty send buffer, so the acceptor never blocks here.
+     *
+     * @param clientSocket the socket of the rejected client
+     */
+    private static void shedConnection(Socket clientSocket) {
+        ServerMetrics.connectionShed();
+        AccessLog.log(clientSocket.getInetAddress().getHostAddress(), null, 503, HttpHandler.SERVICE_UNAVAILABLE.length, System.nanoTime(), "");
+        ServerMetrics.requestEnded(ServerMetrics.OTHER_ROUTE, 503, HttpHandler.SERVICE_UNAVAILABLE.length, 0, false);
+        try { clientSocket.getOutputStream().write(HttpHandler.SERVICE_UNAVAILABLE); }
+        catch (IOException ioe) { System.err.println("-- Error rejecting client connection."); }
+        closeGracefully(clientSocket);
+    }
+
+    /**
+     * Closes a socket on which the server ends the connection, once its last response has been written.
+     * Closing the socket with bytes still unread (a rejected body or headers, or pipelined requests) would
+     * reset the connection, and the reset may discard the response before the client reads it: the response
+     * is ended with a FIN instead, and the socket is closed once the client has had time to read it.
+     * This never blocks the caller.
+     *
+     * @param clientSocket the socket to close
+     */
+    static void closeGracefully(Socket clientSocket) {
+        try {
+            clientSocket.shutdownOutput();
+            LINGERING_CLOSER.schedule(() -> closeLingering(clientSocket), getLingerTimeout(), TimeUnit.MILLISECONDS);
+        } catch (IOException ioe) { closeLingering(clientSocket); }
+    }
+
+    /**
+     * Closes a socket whose output has been shut down, first dropping what the client sent
+     * so that closing does not reset the connection. This never waits for more bytes.
+     *
+     * @param clientSocket the socket to close
+     */
+    private static void closeLingering(Socket clientSocket) {
+        try {
+            InputStream input = clientSocket.getInputStream();
+            while (input.available() > 0) input.skip(input.available());
+        } catch (IOException ioe) { /* The client is already gone */ }
+        try { clientSocket.close(); }
+        catch (IOException ioe) { /* Nothing left to do with this connection */ }
+    }
+
+    /**
+     * Runs the non-blocking engine: a few event loops do all the socket I/O
+     * and only the game logic runs on the maxThreads worker threads.
+     *
+     * @param maxThreads the number of worker threads
+     */
+    private static void startNioServer(int maxThreads) {
+        try {
+            new NioServer(getServerID(), PORT, maxThreads, EVENT_LOOPS, ACCEPTORS).run();
+        } catch (IOException ioe) {
+            System.err.println("-- Could not bind to port " + PORT);
+            ioe.printStackTrace();
+            System.exit(1);
+        }
+    }
+
     // Getters
     public static int getServerID() { return SERVER_ID; }
     public static int getPort() { return PORT; }
     public static int getMaxChunckSize() { return MAX_CHUNCK_SIZE; }
     public static int getMaxAttempts() { return MAX_ATTEMPTS; }
+    public static int getKeepAliveTimeout() { return KEEP_ALIVE_TIMEOUT; }
+    public static int getMaxKeepAliveRequests() { return MAX_KEEP_ALIVE_REQUESTS; }
+    public static int getReadTimeout() { return READ_TIMEOUT; }
+    public static int getRequestTimeout() { return REQUEST_TIMEOUT; }
+    public static int getMaxRequestLineLength() { return MAX_REQUEST_LINE_LENGTH; }
+    public static int getMaxHeaderLineLength() { return MAX_HEADER_LINE_LENGTH; }
+    public static int getMaxHeaders() { return MAX_HEADERS; }
+    public static int getMaxBodySize() { return MAX_BODY_SIZE; }
+    public static int getGzipMinSize() { return GZIP_MIN_SIZE; }
+    public static int getGzipLevel() { return GZIP_LEVEL; }
+    public static boolean isStaticAssets() { return STATIC_ASSETS; }
+    public static String getAccessLog() { return ACCESS_LOG; }
+    public static String getAccessLogFormat() { return ACCESS_LOG_FORMAT; }
+    public static int getAccessLogBuffer() { return ACCESS_LOG_BUFFER; }
+    public static int getAccessLogMaxSize() { return ACCESS_LOG_MAX_SIZE; }
+    public static int getAccessLogFiles() { return ACCESS_LOG_FILES; }
+    public static int getLingerTimeout() { return LINGER_TIMEOUT; }
 
     // Methods to manage SESSIONS mapping
     public static void addSession(String id, SessionData session) {
@@ -59,17 +304,19 @@ public class WordleServer {
             throw new IllegalArgumentException("Neither id nor session can be null");
 
         SESSIONS.put(id, session);
+        WordleEvents.session(WordleEvents.SESSION_CREATED, id, session.getStatus());
     }
     public static SessionData getSessionData(String id) { return SESSIONS.get(id); }
     public static String getFullGameState(String id) { return SESSIONS.get(id).getFullGameState(); }
     public static String getCurrGameState(String id, int currGS) { return SESSIONS.get(id).getCurrGameState(currGS); }
     public static String getSecretWord(String id) { return SESSIONS.get(id).getSecretWord(); }
-    public static void removeSession(String id) { SESSIONS.remove(id); }
+    public static void removeSession(String id) {
+        SessionData session = SESSIONS.remove(id);
+        if (session != null) WordleEvents.session(WordleEvents.SESSION_REMOVED, id, session.getStatus());
+        // A game dropped before it ended was abandoned, by a restart or by letting the session expire
+        if (session != null && !session.getStatus().equals("Win") && !session.getStatus().equals("Gameover")) ServerMetrics.gameAbandoned();
+    }
+    public static int getSessionCount() { return SESSIONS.size(); }
     public static void addGameState(String id, String guess, String color) { SESSIONS.get(id).addGameState(guess, color); }
     public static boolean hasSession(String id) { return SESSIONS.containsKey(id); }
-    public static void printSESSION(String id) {
-        System.out.println("SESSION INFO:");
-        System.out.println("  id: " + id);
-        System.out.println("  Secret Word:" + SESSIONS.get(id).getSecretWord());
-    }
 }